@@ -2,14 +2,17 @@ package org.exoplatform.extension.exchange.listener;
 
 import java.util.*;
 
+import javax.jcr.ItemNotFoundException;
 import javax.jcr.Node;
 import javax.jcr.Property;
 
 import org.apache.commons.chain.Context;
 import org.apache.commons.lang.StringUtils;
 
-import org.exoplatform.calendar.service.CalendarEvent;
 import org.exoplatform.calendar.service.Utils;
+import org.exoplatform.commons.utils.CommonsUtils;
+import org.exoplatform.extension.exchange.service.SynchronizationOriginRegistry;
+import org.exoplatform.extension.exchange.service.SynchronizationService;
 import org.exoplatform.extension.exchange.task.UserIntegrationFacade;
 import org.exoplatform.services.command.action.Action;
 import org.exoplatform.services.log.ExoLogger;
@@ -23,21 +26,22 @@ import org.exoplatform.services.security.IdentityConstants;
 @SuppressWarnings("all")
 public class CalendarCreateUpdateAction implements Action {
 
-  public final static ThreadLocal<Long>     MODIFIED_DATE         = new ThreadLocal<Long>();
+  private static final String      EXO_DATETIME_PROPERTY      = "exo:datetime";
 
-  private final static ThreadLocal<Boolean> IGNORE_UPDATE         = new ThreadLocal<Boolean>();
+  private static final String      EXO_DATE_CREATED_PROPERTY  = "exo:dateCreated";
 
-  private final static List<String>         PROPERTIES_WATCHED    = Arrays.asList(new String[] { Utils.EXO_PARTICIPANT_STATUS,
-      Utils.EXO_REPEAT_INTERVAL, Utils.EXO_REPEAT_FINISH_DATE, Utils.EXO_REPEAT_BYMONTHDAY, Utils.EXO_REPEAT_BYDAY });
+  private static final String      EXO_DATE_MODIFIED_PROPERTY = "exo:dateModified";
 
-  private static final String               EXO_DATETIME_PROPERTY = "exo:datetime";
+  private static final String      JCR_MIXIN_TYPES_PROPERTY   = "jcr:mixinTypes";
 
-  private static final Log                  LOG                   = ExoLogger.getLogger(CalendarCreateUpdateAction.class);
+  // Properties modified by this action, their changes are ignored
+  private static final Set<String> DATE_PROPERTIES            = new HashSet<>(Arrays.asList(EXO_DATE_CREATED_PROPERTY,
+                                                                                            EXO_DATE_MODIFIED_PROPERTY,
+                                                                                            JCR_MIXIN_TYPES_PROPERTY));
+
+  private static final Log         LOG                        = ExoLogger.getLogger(CalendarCreateUpdateAction.class);
 
   public boolean execute(Context context) throws Exception {
-    if (IGNORE_UPDATE.get() != null && IGNORE_UPDATE.get()) {
-      return false;
-    }
     Object object = context.get("currentItem");
     Node node = null;
     Property property = null;
@@ -45,17 +49,15 @@ public class CalendarCreateUpdateAction implements Action {
       node = (Node) object;
     } else if (object instanceof Property) {
       property = (Property) object;
+      if (DATE_PROPERTIES.contains(property.getName())) {
+        return false;
+      }
       node = property.getParent();
     }
     if (!isNodeValid(node)) {
       return false;
     }
 
-    // This is to avoid making multiple update requests to exchange
-    if (property != null && !isLastPropertyToSet(node, property)) {
-      return false;
-    }
-
     String eventId = node.getName();
     try {
       String userId = null;
@@ -78,25 +80,30 @@ public class CalendarCreateUpdateAction implements Action {
                   userId);
         return false;
       } else {
-        Long lastModifiedDate = MODIFIED_DATE.get();
-        if (lastModifiedDate == null || lastModifiedDate == 0) {
+        // Modification date written by the synchronization of an Exchange
+        // change in progress, whatever the thread where the event is saved
+        String synchronizedVersion = getSynchronizedVersion(node);
+        if (synchronizedVersion == null) {
           String calendarId =
                             node.hasProperty(Utils.EXO_CALENDAR_ID) ? node.getProperty(Utils.EXO_CALENDAR_ID).getString() : null;
           if (integrationService.isCalendarSynchronizedWithExchange(calendarId)) {
-            boolean started = integrationService.setSynchronizationStarted();
-            if (started) {
-              try {
-                modifyUpdateDate(node, System.currentTimeMillis());
-                integrationService.updateOrCreateExchangeCalendarEvent(node);
-              } catch (Exception e) {
-                LOG.warn("Error while create/update an Exchange item for eXo event: " + eventId, e);
-              } finally {
-                integrationService.setSynchronizationStopped();
-              }
+            SynchronizationService synchronizationService = CommonsUtils.getService(SynchronizationService.class);
+            // The user is editing his calendar, check Exchange changes and push
+            // this change soon, once the session is saved
+            synchronizationService.getScheduler().notifyActivity(userId);
+            try {
+              long modifiedTime = System.currentTimeMillis();
+              modifyUpdateDate(node, modifiedTime);
+              // Recorded in the user outbox in a separate session, the
+              // modifications of the event are coalesced into its last change
+              // pushed to Exchange by the synchronization task
+              integrationService.submitExchangeCalendarEventUpdate(eventId, calendarId, modifiedTime);
+            } catch (Exception e) {
+              LOG.warn("Error while create/update an Exchange item for eXo event: " + eventId, e);
             }
           }
         } else {
-          modifyUpdateDate(node, lastModifiedDate);
+          modifyUpdateDate(node, Long.parseLong(synchronizedVersion));
         }
       }
     } catch (Exception e) {
@@ -105,65 +112,36 @@ public class CalendarCreateUpdateAction implements Action {
     return false;
   }
 
-  private void modifyUpdateDate(Node node, long lastModifiedDate) throws Exception {
-    IGNORE_UPDATE.set(true);
-    try {
-      GregorianCalendar modifiedDate = new GregorianCalendar();
-      if (lastModifiedDate > 0) {
-        modifiedDate.setTimeInMillis(lastModifiedDate);
-      }
-
-      if (!node.isNodeType(EXO_DATETIME_PROPERTY)) {
-        if (node.canAddMixin(EXO_DATETIME_PROPERTY)) {
-          node.addMixin(EXO_DATETIME_PROPERTY);
+  private String getSynchronizedVersion(Node node) throws Exception {
+    String version = SynchronizationOriginRegistry.getWriteVersion(node.getName());
+    if (version == null && node.hasProperty(Utils.EXO_ORIGINAL_REFERENCE)) {
+      // Exceptional occurrences created by the synchronization are recorded
+      // with their master event
+      String masterUUID = node.getProperty(Utils.EXO_ORIGINAL_REFERENCE).getString();
+      if (StringUtils.isNotBlank(masterUUID)) {
+        try {
+          version = SynchronizationOriginRegistry.getWriteVersion(node.getSession().getNodeByUUID(masterUUID).getName());
+        } catch (ItemNotFoundException e) {
+          LOG.debug("Master event of occurrence '{}' not found", node.getName());
         }
-        node.setProperty("exo:dateCreated", modifiedDate);
       }
-      node.setProperty("exo:dateModified", modifiedDate);
-    } finally {
-      IGNORE_UPDATE.set(false);
     }
+    return version;
   }
 
-  private boolean isLastPropertyToSet(Node node, Property property) throws Exception {
-    String propertyName = property.getName();
-    if (!PROPERTIES_WATCHED.contains(propertyName)) {
-      return false;
+  private void modifyUpdateDate(Node node, long lastModifiedDate) throws Exception {
+    GregorianCalendar modifiedDate = new GregorianCalendar();
+    if (lastModifiedDate > 0) {
+      modifiedDate.setTimeInMillis(lastModifiedDate);
     }
 
-    if (!node.isNodeType(Utils.EXO_REPEAT_CALENDAR_EVENT)) {
-      // EXO_PARTICIPANT_STATUS is last property set
-      return true;
-    } else {
-      // Check if EXO_REPEAT_FINISH_DATE is the last property to set
-      Calendar dateRepeatTo = node.hasProperty(Utils.EXO_REPEAT_UNTIL) && node.getProperty(Utils.EXO_REPEAT_UNTIL) != null
-          && node.getProperty(Utils.EXO_REPEAT_UNTIL).getValue() != null ? node.getProperty(Utils.EXO_REPEAT_UNTIL).getDate()
-                                                                         : null;
-      if (dateRepeatTo != null) {
-        return propertyName.equals(Utils.EXO_REPEAT_FINISH_DATE);
+    if (!node.isNodeType(EXO_DATETIME_PROPERTY)) {
+      if (node.canAddMixin(EXO_DATETIME_PROPERTY)) {
+        node.addMixin(EXO_DATETIME_PROPERTY);
       }
-
-      // Check if EXO_REPEAT_FINISH_DATE is the last property to set
-      Long repeatCount = node.hasProperty(Utils.EXO_REPEAT_COUNT) && node.getProperty(Utils.EXO_REPEAT_COUNT) != null
-          && node.getProperty(Utils.EXO_REPEAT_COUNT).getValue() != null ? node.getProperty(Utils.EXO_REPEAT_COUNT).getLong()
-                                                                         : null;
-      if (repeatCount != null && repeatCount > 0) {
-        return propertyName.equals(Utils.EXO_REPEAT_FINISH_DATE);
-      }
-
-      // Check if EXO_REPEAT_BYDAY or EXO_REPEAT_BYMONTHDAY is the last property
-      // to set
-      String repeatType = node.hasProperty(Utils.EXO_REPEAT) && node.getProperty(Utils.EXO_REPEAT) != null
-          && node.getProperty(Utils.EXO_REPEAT).getValue() != null ? node.getProperty(Utils.EXO_REPEAT).getString() : null;
-      if (StringUtils.equals(repeatType, CalendarEvent.RP_WEEKLY)) {
-        return propertyName.equals(Utils.EXO_REPEAT_BYDAY);
-      } else if (StringUtils.equals(repeatType, CalendarEvent.RP_MONTHLY)) {
-        return propertyName.equals(Utils.EXO_REPEAT_BYMONTHDAY);
-      }
-
-      // EXO_REPEAT_INTERVAL is the last property set
-      return true;
+      node.setProperty(EXO_DATE_CREATED_PROPERTY, modifiedDate);
     }
+    node.setProperty(EXO_DATE_MODIFIED_PROPERTY, modifiedDate);
   }
 
   private boolean isNodeValid(Node node) throws Exception {
@@ -5,6 +5,10 @@ import javax.jcr.Node;
 import org.apache.commons.chain.Context;
 
 import org.exoplatform.calendar.service.Utils;
+import org.exoplatform.commons.utils.CommonsUtils;
+import org.exoplatform.extension.exchange.service.SynchronizationOriginRegistry;
+import org.exoplatform.extension.exchange.service.SynchronizationOriginRegistry.Origin;
+import org.exoplatform.extension.exchange.service.SynchronizationService;
 import org.exoplatform.extension.exchange.task.UserIntegrationFacade;
 import org.exoplatform.services.command.action.Action;
 import org.exoplatform.services.log.ExoLogger;
@@ -24,6 +28,10 @@ public class CalendarDeleteAction implements Action {
     Node node = (Node) context.get("currentItem");
     if (node.isNodeType("exo:calendarEvent")) {
       String eventId = node.getName();
+      if (SynchronizationOriginRegistry.isDeletionEcho(eventId, Origin.EXCHANGE)) {
+        // Deleted by the synchronization since it was deleted from Exchange
+        return false;
+      }
       try {
         String userId = null;
         ConversationState state = ConversationState.getCurrent();
@@ -41,29 +49,17 @@ public class CalendarDeleteAction implements Action {
           }
           return false;
         } else {
-          boolean started = false;
           try {
             String calendarId = node.getProperty(Utils.EXO_CALENDAR_ID).getString();
             if (integrationService.isCalendarSynchronizedWithExchange(calendarId)) {
-              // Test if synchronization task is started, if yes, don't take
-              // care about modifications to not corrupt data by cocurrent
-              // modifications.
-              started = integrationService.setSynchronizationStarted();
-              if (started) {
-                try {
-                  integrationService.deleteExchangeCalendarEvent(eventId, calendarId);
-                } finally {
-                  integrationService.setSynchronizationStopped();
-                }
-              }
+              // Recorded in the user outbox in a separate session, then pushed
+              // to Exchange by the synchronization task once the deletion is
+              // saved
+              integrationService.submitExchangeCalendarEventDeletion(eventId, calendarId);
+              CommonsUtils.getService(SynchronizationService.class).getScheduler().notifyActivity(userId);
             }
           } catch (Exception e) {
             LOG.error("Error while deleting Exchange event: " + eventId, e);
-          } finally {
-            // Set synchronization as finished if it was started here.
-            if (started) {
-              integrationService.setSynchronizationStopped();
-            }
           }
         }
       } catch (Exception e) {
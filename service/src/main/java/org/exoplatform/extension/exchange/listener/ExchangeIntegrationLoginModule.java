@@ -36,8 +36,12 @@ public class ExchangeIntegrationLoginModule extends AbstractLoginModule {
     try {
       callbackHandler.handle(callbacks);
       username = ((NameCallback) callbacks[0]).getName();
-      String password = new String(((PasswordCallback) callbacks[1]).getPassword());
-      if (!StringUtils.isEmpty(username) && !StringUtils.isEmpty(password)) {
+      PasswordCallback passwordCallback = (PasswordCallback) callbacks[1];
+      char[] password = passwordCallback.getPassword();
+      passwordCallback.clearPassword();
+      if (!StringUtils.isEmpty(username) && password != null && password.length > 0) {
+        // The Exchange session is bootstrapped asynchronously, the password is
+        // cleared by the service once used
         getExchangeListenerService().userLoggedIn(username, password);
       }
     } catch (Exception e) {
@@ -0,0 +1,76 @@
+package org.exoplatform.extension.exchange.model;
+
+import java.io.Serializable;
+
+public class OutboxChange implements Serializable {
+  private static final long serialVersionUID = -2875318129735186044L;
+
+  String                    changeId;
+
+  String                    eventId;
+
+  String                    calendarId;
+
+  boolean                   deleted;
+
+  long                      changeTime;
+
+  int                       attempts;
+
+  public OutboxChange(String changeId, String eventId, String calendarId, boolean deleted, long changeTime, int attempts) {
+    this.changeId = changeId;
+    this.eventId = eventId;
+    this.calendarId = calendarId;
+    this.deleted = deleted;
+    this.changeTime = changeTime;
+    this.attempts = attempts;
+  }
+
+  public String getChangeId() {
+    return changeId;
+  }
+
+  public void setChangeId(String changeId) {
+    this.changeId = changeId;
+  }
+
+  public String getEventId() {
+    return eventId;
+  }
+
+  public void setEventId(String eventId) {
+    this.eventId = eventId;
+  }
+
+  public String getCalendarId() {
+    return calendarId;
+  }
+
+  public void setCalendarId(String calendarId) {
+    this.calendarId = calendarId;
+  }
+
+  public boolean isDeleted() {
+    return deleted;
+  }
+
+  public void setDeleted(boolean deleted) {
+    this.deleted = deleted;
+  }
+
+  public long getChangeTime() {
+    return changeTime;
+  }
+
+  public void setChangeTime(long changeTime) {
+    this.changeTime = changeTime;
+  }
+
+  public int getAttempts() {
+    return attempts;
+  }
+
+  public void setAttempts(int attempts) {
+    this.attempts = attempts;
+  }
+}
@@ -0,0 +1,201 @@
+package org.exoplatform.extension.exchange.service;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import org.exoplatform.extension.exchange.service.util.CalendarConverterUtils;
+
+/**
+ * Correspondence between eXo and Exchange identifiers of a user. Events
+ * identifiers are indexed in two maps, from eXo to Exchange and from Exchange
+ * to eXo, sharing the same compact keys, while calendars identifiers are kept
+ * in a separate small map so that the synchronized folders can be retrieved
+ * without scanning all the events.
+ *
+ * @author Boubaker KHANFIR
+ */
+public class CorrespondenceIndex implements Serializable {
+  private static final long               serialVersionUID = -4542245367018513232L;
+
+  private final Map<CompactId, CompactId> exoToExchange    = new HashMap<>();
+
+  private final Map<CompactId, CompactId> exchangeToExo    = new HashMap<>();
+
+  // Map of eXo Calendar Id, Exchange Folder Id
+  private final Map<String, String>       calendarToFolder = new HashMap<>();
+
+  // Map of Exchange Folder Id, eXo Calendar Id
+  private final Map<String, String>       folderToCalendar = new HashMap<>();
+
+  /**
+   * @param id eXo or Exchange Id
+   * @return Id of the corresponding element, null if not found
+   */
+  public synchronized String get(String id) {
+    if (id == null) {
+      return null;
+    }
+    if (CalendarConverterUtils.isExchangeCalendarId(id)) {
+      return calendarToFolder.get(id);
+    }
+    String calendarId = folderToCalendar.get(id);
+    if (calendarId != null) {
+      return calendarId;
+    }
+    CompactId key = new CompactId(id);
+    CompactId correspondingId = exoToExchange.get(key);
+    if (correspondingId == null) {
+      correspondingId = exchangeToExo.get(key);
+    }
+    return correspondingId == null ? null : correspondingId.toString();
+  }
+
+  public synchronized void put(String exoId, String exchangeId) {
+    if (CalendarConverterUtils.isExchangeCalendarId(exoId)) {
+      calendarToFolder.put(exoId, exchangeId);
+      folderToCalendar.put(exchangeId, exoId);
+    } else {
+      CompactId exoKey = new CompactId(exoId);
+      CompactId exchangeKey = new CompactId(exchangeId);
+      exoToExchange.put(exoKey, exchangeKey);
+      exchangeToExo.put(exchangeKey, exoKey);
+    }
+  }
+
+  /**
+   * Removes the correspondence of an element in both directions.
+   *
+   * @param id eXo or Exchange Id
+   * @return true if a correspondence was removed
+   */
+  public synchronized boolean remove(String id) {
+    if (id == null) {
+      return false;
+    }
+    String correspondingId = calendarToFolder.remove(id);
+    if (correspondingId != null) {
+      folderToCalendar.remove(correspondingId);
+      return true;
+    }
+    correspondingId = folderToCalendar.remove(id);
+    if (correspondingId != null) {
+      calendarToFolder.remove(correspondingId);
+      return true;
+    }
+    CompactId key = new CompactId(id);
+    CompactId correspondingKey = exoToExchange.remove(key);
+    if (correspondingKey != null) {
+      exchangeToExo.remove(correspondingKey);
+      return true;
+    }
+    correspondingKey = exchangeToExo.remove(key);
+    if (correspondingKey != null) {
+      exoToExchange.remove(correspondingKey);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return Exchange Folder Ids synchronized with an eXo Calendar
+   */
+  public synchronized List<String> getExchangeFolderIds() {
+    return new ArrayList<>(calendarToFolder.values());
+  }
+
+  public synchronized int size() {
+    return calendarToFolder.size() + exoToExchange.size();
+  }
+
+  /**
+   * Converts the index to the stored format, where each correspondence is
+   * stored in both directions.
+   *
+   * @return properties of correspondences
+   */
+  public synchronized Properties toProperties() {
+    Properties properties = new Properties();
+    for (Map.Entry<String, String> entry : calendarToFolder.entrySet()) {
+      properties.setProperty(entry.getKey(), entry.getValue());
+      properties.setProperty(entry.getValue(), entry.getKey());
+    }
+    for (Map.Entry<CompactId, CompactId> entry : exoToExchange.entrySet()) {
+      String exoId = entry.getKey().toString();
+      String exchangeId = entry.getValue().toString();
+      properties.setProperty(exoId, exchangeId);
+      properties.setProperty(exchangeId, exoId);
+    }
+    return properties;
+  }
+
+  /**
+   * Builds the index from the stored format.
+   *
+   * @param properties correspondences stored in both directions
+   * @return index of correspondences
+   */
+  public static CorrespondenceIndex fromProperties(Properties properties) {
+    CorrespondenceIndex index = new CorrespondenceIndex();
+    for (String id : properties.stringPropertyNames()) {
+      String correspondingId = properties.getProperty(id);
+      if (index.get(id) != null || index.get(correspondingId) != null) {
+        // Already added with the other direction
+        continue;
+      }
+      if (isExoId(id, correspondingId)) {
+        index.put(id, correspondingId);
+      } else {
+        index.put(correspondingId, id);
+      }
+    }
+    return index;
+  }
+
+  /**
+   * The stored format doesn't tell which of both Ids is the eXo one. The eXo
+   * Ids are either prefixed or generated Ids shorter than the Exchange Ids,
+   * which are base64 encoded EWS identifiers.
+   */
+  private static boolean isExoId(String id, String correspondingId) {
+    if (CalendarConverterUtils.isExchangeCalendarId(id) || CalendarConverterUtils.isExchangeEventId(id)) {
+      return true;
+    } else if (CalendarConverterUtils.isExchangeCalendarId(correspondingId)
+        || CalendarConverterUtils.isExchangeEventId(correspondingId)) {
+      return false;
+    }
+    return id.length() <= correspondingId.length();
+  }
+
+  /**
+   * Identifier stored as UTF-8 bytes instead of a String, which uses two bytes
+   * per character, the identifiers being ASCII strings.
+   */
+  private static final class CompactId implements Serializable {
+    private static final long serialVersionUID = 2394785712734539842L;
+
+    private final byte[]      value;
+
+    private final int         hash;
+
+    private CompactId(String id) {
+      this.value = id.getBytes(StandardCharsets.UTF_8);
+      this.hash = Arrays.hashCode(value);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return this == obj || (obj instanceof CompactId && Arrays.equals(value, ((CompactId) obj).value));
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public String toString() {
+      return new String(value, StandardCharsets.UTF_8);
+    }
+  }
+}
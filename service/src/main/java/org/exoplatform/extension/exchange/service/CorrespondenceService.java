@@ -2,14 +2,21 @@ package org.exoplatform.extension.exchange.service;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.jcr.*;
 
 import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.lang.StringUtils;
+
+import com.google.common.cache.*;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import org.exoplatform.calendar.service.Utils;
 import org.exoplatform.commons.utils.CommonsUtils;
-import org.exoplatform.extension.exchange.service.util.CalendarConverterUtils;
+import org.exoplatform.container.xml.InitParams;
 import org.exoplatform.services.jcr.ext.app.SessionProviderService;
 import org.exoplatform.services.jcr.ext.common.SessionProvider;
 import org.exoplatform.services.jcr.ext.hierarchy.NodeHierarchyCreator;
@@ -17,19 +24,86 @@ import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 
 public class CorrespondenceService implements Serializable {
-  private static final long                serialVersionUID   = 4155183714826625091L;
+  private static final long                serialVersionUID    = 4155183714826625091L;
+
+  private static final Log                 LOG                 = ExoLogger.getLogger(CorrespondenceService.class);
+
+  private static final String              EXCHANGE_NODE_NAME  = "calendar-exchange-extension";
+
+  // Maximum number of changes kept in memory before being persisted, even if
+  // the synchronization isn't finished yet
+  private static final int                 MAX_PENDING_CHANGES = 500;
+
+  private static final String              CACHE_SIZE_NAME     = "exchange.correspondence.cache.size";
+
+  private static final String              CACHE_IDLE_NAME     = "exchange.correspondence.cache.idle";
+
+  private static final int                 CACHE_SIZE_DEFAULT  = 5000;
 
-  private static final Log                 LOG                = ExoLogger.getLogger(CorrespondenceService.class);
+  private static final int                 CACHE_IDLE_DEFAULT  = 3600;
 
-  private static final String              EXCHANGE_NODE_NAME = "calendar-exchange-extension";
+  // Cache of userId, correspondence exchange and eXo Ids
+  private transient LoadingCache<String, CorrespondenceIndex> indexesCache;
 
-  // Map of userId, correspondence exchange and eXo Ids
-  private Map<String, Properties>          propertiesMap      = new HashMap<>();
+  // Map of userId, number of changes not yet persisted
+  private Map<String, Integer>             pendingChanges      = new ConcurrentHashMap<>();
+
+  // Map of userId, number of synchronizations using the correspondences
+  private Map<String, Integer>             pins                = new ConcurrentHashMap<>();
+
+  // Correspondences of synchronized users, kept out of the cache eviction
+  private Map<String, CorrespondenceIndex> pinnedIndexes       = new ConcurrentHashMap<>();
+
+  // Map of userId, number of transactions in progress which changes must not
+  // be persisted before they are committed
+  private Map<String, Integer>             deferredFlushes     = new ConcurrentHashMap<>();
+
+  private transient long                   loggedEvictionCount;
 
   private transient NodeHierarchyCreator   hierarchyCreator;
 
   private transient SessionProviderService sessionProviderService;
 
+  public CorrespondenceService(InitParams params) {
+    int cacheSize = CACHE_SIZE_DEFAULT;
+    int cacheIdleInSeconds = CACHE_IDLE_DEFAULT;
+    if (params != null && params.containsKey(CACHE_SIZE_NAME)) {
+      String cacheSizeString = params.getValueParam(CACHE_SIZE_NAME).getValue();
+      if (StringUtils.isNotBlank(cacheSizeString)) {
+        cacheSize = Integer.parseInt(cacheSizeString.trim());
+      }
+    }
+    if (cacheSize < 1) {
+      LOG.warn("Echange Synchronization Service: Correspondences cache size (init-param {}) is invalid. Default will be used: {}.",
+               CACHE_SIZE_NAME,
+               CACHE_SIZE_DEFAULT);
+      cacheSize = CACHE_SIZE_DEFAULT;
+    }
+    if (params != null && params.containsKey(CACHE_IDLE_NAME)) {
+      String cacheIdleString = params.getValueParam(CACHE_IDLE_NAME).getValue();
+      if (StringUtils.isNotBlank(cacheIdleString)) {
+        cacheIdleInSeconds = Integer.parseInt(cacheIdleString.trim());
+      }
+    }
+    if (cacheIdleInSeconds < 1) {
+      LOG.warn("Echange Synchronization Service: Correspondences cache idle time in seconds (init-param {}) is invalid. Default will be used: {} seconds.",
+               CACHE_IDLE_NAME,
+               CACHE_IDLE_DEFAULT);
+      cacheIdleInSeconds = CACHE_IDLE_DEFAULT;
+    }
+    this.indexesCache = CacheBuilder.newBuilder()
+                                    .maximumSize(cacheSize)
+                                    .expireAfterAccess(cacheIdleInSeconds, TimeUnit.SECONDS)
+                                    .recordStats()
+                                    .removalListener(this::onIndexRemoval)
+                                    .build(new CacheLoader<String, CorrespondenceIndex>() {
+                                      @Override
+                                      public CorrespondenceIndex load(String username) throws Exception {
+                                        return loadCorrespondenceIndex(username);
+                                      }
+                                    });
+  }
+
   /**
    * Gets Id of exchange from eXo Calendar or Event Id and vice versa
    * 
@@ -39,8 +113,8 @@ public class CorrespondenceService implements Serializable {
    * @throws Exception
    */
   public String getCorrespondingId(String username, String id) throws Exception {
-    Properties properties = loadCorrespondenceProperties(username);
-    return properties.getProperty(id);
+    CorrespondenceIndex index = getCorrespondenceIndex(username);
+    return index.get(id);
   }
 
   /**
@@ -62,10 +136,9 @@ public class CorrespondenceService implements Serializable {
       deleteCorrespondingId(username, exchangeId, exoId);
     }
 
-    Properties properties = loadCorrespondenceProperties(username);
-    properties.setProperty(exchangeId, exoId);
-    properties.setProperty(exoId, exchangeId);
-    saveProperties(username, properties);
+    CorrespondenceIndex index = getCorrespondenceIndex(username);
+    index.put(exoId, exchangeId);
+    markChanged(username, index);
   }
 
   /**
@@ -77,34 +150,198 @@ public class CorrespondenceService implements Serializable {
    * @throws Exception
    */
   public void deleteCorrespondingId(String username, String exchangeId, String exoId) throws Exception {
-    Properties properties = loadCorrespondenceProperties(username);
-    properties.remove(exchangeId);
-    properties.remove(exoId);
-    saveProperties(username, properties);
+    CorrespondenceIndex index = getCorrespondenceIndex(username);
+    index.remove(exchangeId);
+    index.remove(exoId);
+    markChanged(username, index);
   }
 
   public void deleteCorrespondingId(String username, String id) throws Exception {
-    Properties properties = loadCorrespondenceProperties(username);
-    String secondId = properties.getProperty(id);
-    if (secondId != null) {
-      properties.remove(id);
-      properties.remove(secondId);
-      saveProperties(username, properties);
+    CorrespondenceIndex index = getCorrespondenceIndex(username);
+    if (index.remove(id)) {
+      markChanged(username, index);
     }
   }
 
   public List<String> getSynchronizedExchangeFolderIds(String username) throws Exception {
-    Properties properties = loadCorrespondenceProperties(username);
-    List<String> folderIds = new ArrayList<>();
-    @SuppressWarnings("unchecked")
-    Enumeration<String> enumeration = (Enumeration<String>) properties.propertyNames();
-    while (enumeration.hasMoreElements()) {
-      String name = enumeration.nextElement();
-      if (CalendarConverterUtils.isExchangeCalendarId(name)) {
-        folderIds.add(properties.getProperty(name));
+    CorrespondenceIndex index = getCorrespondenceIndex(username);
+    return index.getExchangeFolderIds();
+  }
+
+  /**
+   * Persists the correspondences of the user if they were modified since the
+   * last flush. The modifications are kept in memory until this method is
+   * called, so that a synchronization writes the correspondences once, in a
+   * single JCR save, instead of once per modified element.
+   * 
+   * @param username
+   * @throws Exception
+   */
+  public void flush(String username) throws Exception {
+    CorrespondenceIndex index = pinnedIndexes.get(username);
+    if (index == null) {
+      index = indexesCache.getIfPresent(username);
+    }
+    if (index != null) {
+      flush(username, index);
+    }
+  }
+
+  /**
+   * Keeps the modifications of the user correspondences in memory, even if
+   * the maximum of pending changes is reached, until
+   * {@link #resumeFlush(String)} is called. This is used while eXo events are
+   * saved in a transaction, so that correspondences aren't persisted in it.
+   * 
+   * @param username
+   */
+  public void deferFlush(String username) {
+    deferredFlushes.merge(username, 1, Integer::sum);
+  }
+
+  /**
+   * @param username
+   */
+  public void resumeFlush(String username) {
+    deferredFlushes.computeIfPresent(username, (key, count) -> count > 1 ? count - 1 : null);
+  }
+
+  /**
+   * Keeps the correspondences of the user in memory, whatever the cache size,
+   * until {@link #release(String)} is called. This is called when the user
+   * synchronization is started.
+   * 
+   * @param username
+   */
+  public void pin(String username) {
+    pins.merge(username, 1, Integer::sum);
+  }
+
+  /**
+   * Persists the pending modifications of the user correspondences, then
+   * removes them from memory if no other synchronization of the user uses
+   * them. This is called when the user synchronization is stopped.
+   * 
+   * @param username
+   */
+  public void release(String username) {
+    Integer remainingPins = pins.computeIfPresent(username, (key, count) -> count > 1 ? count - 1 : null);
+    try {
+      flush(username);
+    } catch (Exception e) {
+      LOG.error("Error while saving correspondences of user '{}'", username, e);
+    }
+    if (remainingPins == null) {
+      pinnedIndexes.remove(username);
+      indexesCache.invalidate(username);
+    }
+  }
+
+  /**
+   * Persists the correspondences of all users having pending modifications.
+   */
+  public void flushAll() {
+    for (String username : new ArrayList<>(pendingChanges.keySet())) {
+      try {
+        flush(username);
+      } catch (Exception e) {
+        LOG.error("Error while saving correspondences of user '{}'", username, e);
       }
     }
-    return folderIds;
+  }
+
+  /**
+   * Logs the statistics of the correspondences cache.
+   */
+  public void logStatistics() {
+    CacheStats stats = getCacheStats();
+    long evictionCount = stats.evictionCount();
+    if (evictionCount > loggedEvictionCount) {
+      loggedEvictionCount = evictionCount;
+      LOG.info("Exchange integration, correspondence service : {} synchronized users, {} cached users, cache statistics {}. Consider increasing {}.",
+               pinnedIndexes.size(),
+               getCacheSize(),
+               stats,
+               CACHE_SIZE_NAME);
+    } else if (LOG.isDebugEnabled()) {
+      LOG.debug("Exchange integration, correspondence service : {} synchronized users, {} cached users, cache statistics {}",
+                pinnedIndexes.size(),
+                getCacheSize(),
+                stats);
+    }
+  }
+
+  /**
+   * @return hits, misses, loads and evictions statistics of the
+   *         correspondences cache
+   */
+  public CacheStats getCacheStats() {
+    return indexesCache.stats();
+  }
+
+  public long getCacheSize() {
+    return indexesCache.size();
+  }
+
+  private void flush(String username, CorrespondenceIndex index) throws Exception {
+    Integer changes = pendingChanges.get(username);
+    if (changes == null) {
+      return;
+    }
+    saveProperties(username, index.toProperties());
+    // The changes are kept until they are saved, the changes made meanwhile
+    // are kept for the next flush
+    pendingChanges.computeIfPresent(username, (key, count) -> count > changes ? count - changes : null);
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("Exchange integration, correspondence service : {} changes saved for user '{}'.", changes, username);
+    }
+  }
+
+  private void onIndexRemoval(RemovalNotification<String, CorrespondenceIndex> notification) {
+    if (notification.wasEvicted() && notification.getValue() != null) {
+      // Don't lose the changes not yet persisted of an evicted user
+      try {
+        flush(notification.getKey(), notification.getValue());
+      } catch (Exception e) {
+        LOG.error("Error while saving correspondences of evicted user '{}'", notification.getKey(), e);
+      }
+    }
+  }
+
+  private CorrespondenceIndex getCorrespondenceIndex(String username) throws Exception {
+    CorrespondenceIndex index = pinnedIndexes.get(username);
+    if (index != null) {
+      return index;
+    }
+    try {
+      index = indexesCache.get(username);
+      if (pins.containsKey(username)) {
+        CorrespondenceIndex pinnedIndex = pinnedIndexes.putIfAbsent(username, index);
+        if (pinnedIndex != null) {
+          index = pinnedIndex;
+        }
+      }
+      return index;
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private void markChanged(String username, CorrespondenceIndex index) throws Exception {
+    int changes = pendingChanges.merge(username, 1, Integer::sum);
+    if (deferredFlushes.containsKey(username)) {
+      return;
+    }
+    if (changes >= MAX_PENDING_CHANGES) {
+      flush(username, index);
+    } else if (index != pinnedIndexes.get(username) && index != indexesCache.getIfPresent(username)) {
+      // The index was evicted, and flushed, while being modified: persist the
+      // change now since it won't be flushed with the cached index
+      flush(username, index);
+    }
   }
 
   private void saveProperties(String username, Properties properties) throws Exception {
@@ -132,26 +369,21 @@ public class CorrespondenceService implements Serializable {
     }
   }
 
-  private Properties loadCorrespondenceProperties(String username) throws Exception {
-    Properties properties = propertiesMap.get(username);
-    if (properties == null) {
-      properties = new Properties();
-
-      // Load properties from JCR
-      SessionProvider sessionProvider = getSessionProviderService().getSystemSessionProvider(null);
-      Node node = getHierarchyCreator().getUserApplicationNode(sessionProvider, username);
-      if (node == null) {
-        throw new IllegalStateException("User application node not found. Please fix this and try later.");
-      }
-      if (node.hasNode(EXCHANGE_NODE_NAME)) {
-        node = node.getNode(EXCHANGE_NODE_NAME);
-        InputStream inputStream = node.getProperty(Utils.JCR_DATA).getStream();
-        properties.load(inputStream);
-      }
+  private CorrespondenceIndex loadCorrespondenceIndex(String username) throws Exception {
+    Properties properties = new Properties();
 
-      propertiesMap.put(username, properties);
+    // Load properties from JCR
+    SessionProvider sessionProvider = getSessionProviderService().getSystemSessionProvider(null);
+    Node node = getHierarchyCreator().getUserApplicationNode(sessionProvider, username);
+    if (node == null) {
+      throw new IllegalStateException("User application node not found. Please fix this and try later.");
+    }
+    if (node.hasNode(EXCHANGE_NODE_NAME)) {
+      node = node.getNode(EXCHANGE_NODE_NAME);
+      InputStream inputStream = node.getProperty(Utils.JCR_DATA).getStream();
+      properties.load(inputStream);
     }
-    return properties;
+    return CorrespondenceIndex.fromProperties(properties);
   }
 
   public NodeHierarchyCreator getHierarchyCreator() {
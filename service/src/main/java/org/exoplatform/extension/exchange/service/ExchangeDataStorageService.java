@@ -13,18 +13,22 @@ import org.exoplatform.calendar.service.CalendarService;
 import org.exoplatform.calendar.service.impl.CalendarServiceImpl;
 import org.exoplatform.commons.utils.CommonsUtils;
 import org.exoplatform.container.PortalContainer;
+import org.exoplatform.extension.exchange.service.SynchronizationOriginRegistry.Origin;
 import org.exoplatform.extension.exchange.service.util.CalendarConverterUtils;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 import org.exoplatform.services.organization.OrganizationService;
 
 import microsoft.exchange.webservices.data.core.*;
+import microsoft.exchange.webservices.data.core.enumeration.misc.error.ServiceError;
 import microsoft.exchange.webservices.data.core.enumeration.property.BasePropertySet;
 import microsoft.exchange.webservices.data.core.enumeration.property.WellKnownFolderName;
 import microsoft.exchange.webservices.data.core.enumeration.service.*;
 import microsoft.exchange.webservices.data.core.exception.service.local.ServiceLocalException;
 import microsoft.exchange.webservices.data.core.exception.service.local.ServiceObjectPropertyException;
 import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceResponseException;
+import microsoft.exchange.webservices.data.core.response.GetItemResponse;
+import microsoft.exchange.webservices.data.core.response.ServiceResponseCollection;
 import microsoft.exchange.webservices.data.core.service.folder.CalendarFolder;
 import microsoft.exchange.webservices.data.core.service.folder.Folder;
 import microsoft.exchange.webservices.data.core.service.item.Appointment;
@@ -99,6 +103,14 @@ public class ExchangeDataStorageService implements Serializable {
       return false;
     }
 
+    if (SynchronizationOriginRegistry.isEcho(event.getId(), String.valueOf(event.getLastModified()), Origin.EXCHANGE)) {
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("IGNORE updating appointment '{}' because the event was modified by the synchronization of this appointment",
+                  event.getSummary());
+      }
+      return false;
+    }
+
     String itemId = correspondenceService.getCorrespondingId(username, event.getId());
     boolean isNew = true;
     Appointment appointment = null;
@@ -432,6 +444,37 @@ public class ExchangeDataStorageService implements Serializable {
     return item;
   }
 
+  /**
+   * Loads a list of items using a single request.
+   * 
+   * @param service
+   * @param itemIds
+   * @param propertySet
+   * @return Map of item unique id and loaded item. If an item wasn't found on
+   *         Exchange, it's mapped to null. If an item can't be retrieved for
+   *         another reason, it's not present in the map.
+   * @throws Exception
+   */
+  public Map<String, Item> getItems(ExchangeService service, List<ItemId> itemIds, PropertySet propertySet) throws Exception {
+    Map<String, Item> items = new HashMap<>();
+    if (itemIds.isEmpty()) {
+      return items;
+    }
+    ServiceResponseCollection<GetItemResponse> responses = service.bindToItems(itemIds, propertySet);
+    for (int i = 0; i < responses.getCount(); i++) {
+      GetItemResponse response = responses.getResponseAtIndex(i);
+      String itemId = itemIds.get(i).getUniqueId();
+      if (ServiceResult.Success.equals(response.getResult())) {
+        items.put(itemId, response.getItem());
+      } else if (ServiceError.ErrorItemNotFound.equals(response.getErrorCode())) {
+        items.put(itemId, null);
+      } else {
+        LOG.warn("Can't get item identified by id: {}, error: {}", itemId, response.getErrorMessage());
+      }
+    }
+    return items;
+  }
+
   private List<Folder> searchSubFolders(ExchangeService service, FolderId parentFolderId) throws Exception {
     FolderView view = new FolderView(1000);
     view.setPropertySet(new PropertySet(BasePropertySet.FirstClassProperties));
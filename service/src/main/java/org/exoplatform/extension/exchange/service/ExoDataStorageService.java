@@ -9,20 +9,26 @@ import java.util.*;
 
 import javax.jcr.*;
 import javax.jcr.query.*;
+import javax.transaction.Status;
+import javax.transaction.Transaction;
+import javax.transaction.UserTransaction;
 
 import org.exoplatform.calendar.service.Calendar;
 import org.exoplatform.calendar.service.CalendarEvent;
 import org.exoplatform.calendar.service.CalendarService;
+import org.exoplatform.calendar.service.Utils;
 import org.exoplatform.calendar.service.impl.CalendarServiceImpl;
 import org.exoplatform.calendar.service.impl.JCRDataStorage;
 import org.exoplatform.calendar.util.Constants;
 import org.exoplatform.commons.utils.CommonsUtils;
 import org.exoplatform.commons.utils.ISO8601;
-import org.exoplatform.extension.exchange.listener.CalendarCreateUpdateAction;
+import org.exoplatform.extension.exchange.service.SynchronizationOriginRegistry.Origin;
+import org.exoplatform.services.jcr.core.XASession;
 import org.exoplatform.services.jcr.ext.common.SessionProvider;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 import org.exoplatform.services.organization.OrganizationService;
+import org.exoplatform.services.transaction.TransactionService;
 
 import microsoft.exchange.webservices.data.core.PropertySet;
 import microsoft.exchange.webservices.data.core.enumeration.property.BasePropertySet;
@@ -31,6 +37,7 @@ import microsoft.exchange.webservices.data.core.exception.service.remote.Service
 import microsoft.exchange.webservices.data.core.service.folder.Folder;
 import microsoft.exchange.webservices.data.core.service.item.Appointment;
 import microsoft.exchange.webservices.data.core.service.schema.AppointmentSchema;
+import microsoft.exchange.webservices.data.property.complex.OccurrenceInfo;
 import microsoft.exchange.webservices.data.property.complex.recurrence.pattern.Recurrence;
 
 /**
@@ -51,6 +58,8 @@ public class ExoDataStorageService implements Serializable {
 
   private transient OrganizationService organizationService;
 
+  private transient TransactionService  transactionService;
+
   private CorrespondenceService         correspondenceService;
 
   public ExoDataStorageService(CorrespondenceService correspondenceService) {
@@ -91,6 +100,7 @@ public class ExoDataStorageService implements Serializable {
       if (LOG.isDebugEnabled()) {
         LOG.debug("DELETE user '{}' calendar event: {} with id {}", username, calendarEvent.getSummary(), calendarEvent.getId());
       }
+      SynchronizationOriginRegistry.recordDeletion(calendarEvent.getId(), Origin.EXCHANGE);
       getExoCalendarDataStorage().removeUserEvent(username, calendarEvent.getCalendarId(), calendarEvent.getId());
       // Remove correspondence between exo and exchange IDs
       correspondenceService.deleteCorrespondingId(username, calendarEvent.getId());
@@ -101,6 +111,7 @@ public class ExoDataStorageService implements Serializable {
                   calendarEvent.getSummary(),
                   calendarEvent.getRecurrenceId());
       }
+      SynchronizationOriginRegistry.recordDeletion(calendarEvent.getId(), Origin.EXCHANGE);
       getExoCalendarDataStorage().removeUserEvent(username, calendarEvent.getCalendarId(), calendarEvent.getId());
       correspondenceService.deleteCorrespondingId(username, calendarEvent.getId());
     } else if (calendarEvent.getRecurrenceId() != null && !calendarEvent.getRecurrenceId().isEmpty()) {
@@ -138,12 +149,17 @@ public class ExoDataStorageService implements Serializable {
     if (calendarId == null) {
       calendarId = getCalendarId(folderId);
     }
-    List<CalendarEvent> events = getUserCalendarEvents(username, folderId);
-    if (events == null) {
+    Node calendarNode = getUserCalendarNode(username, calendarId);
+    if (calendarNode == null) {
       return false;
     }
-    for (CalendarEvent calendarEvent : events) {
-      correspondenceService.deleteCorrespondingId(username, calendarEvent.getId());
+    // Only the events identifiers are needed, the events aren't loaded
+    NodeIterator eventNodes = calendarNode.getNodes();
+    while (eventNodes.hasNext()) {
+      Node eventNode = eventNodes.nextNode();
+      if (eventNode.isNodeType(Utils.EXO_CALENDAR_EVENT)) {
+        correspondenceService.deleteCorrespondingId(username, eventNode.getName());
+      }
     }
     getExoCalendarDataStorage().removeUserCalendar(username, calendarId);
     correspondenceService.deleteCorrespondingId(username, folderId, calendarId);
@@ -246,6 +262,25 @@ public class ExoDataStorageService implements Serializable {
     return userEvents;
   }
 
+  /**
+   * Iterates over the Events of User Calendar identified by Exchange folder Id.
+   * Each event is loaded when it's reached, so that the events of a large
+   * calendar aren't held in memory all together.
+   * 
+   * @param username
+   * @param folderId
+   * @return iterator over events, null if the calendar doesn't exist
+   * @throws Exception
+   */
+  public Iterator<CalendarEvent> iterateUserCalendarEvents(String username, String folderId) throws Exception {
+    String calendarId = correspondenceService.getCorrespondingId(username, folderId);
+    if (calendarId == null) {
+      calendarId = getCalendarId(folderId);
+    }
+    Node calendarNode = getUserCalendarNode(username, calendarId);
+    return calendarNode == null ? null : new CalendarEventIterator(calendarNode.getNodes(), Calendar.TYPE_PRIVATE);
+  }
+
   /**
    * Updates existing eXo Calendar Event.
    * 
@@ -295,6 +330,68 @@ public class ExoDataStorageService implements Serializable {
     }
   }
 
+  /**
+   * Creates or updates a page of eXo Calendar Events in a single transaction,
+   * so that the events, their modification dates and the related JCR changes
+   * are committed at once instead of once per event. The transaction is used
+   * only if the sessions of the calendar storage can be enlisted in it,
+   * otherwise the events are saved one by one. The correspondences aren't
+   * persisted before the transaction is committed. If the transaction fails,
+   * the events are saved one by one, so that only the events in error are
+   * ignored.
+   * 
+   * @param appointments
+   * @param username
+   * @return created or updated eXo events
+   * @throws Exception
+   */
+  public List<CalendarEvent> createOrUpdateEvents(List<Appointment> appointments, String username) throws Exception {
+    UserTransaction transaction = appointments.size() > 1 ? getUserTransaction() : null;
+    if (transaction != null) {
+      List<CalendarEvent> updatedEvents = new ArrayList<>();
+      correspondenceService.deferFlush(username);
+      try {
+        transaction.begin();
+        if (enlistCalendarSessions()) {
+          for (Appointment appointment : appointments) {
+            List<CalendarEvent> events = createOrUpdateEvent(appointment, username);
+            if (events != null) {
+              updatedEvents.addAll(events);
+            }
+          }
+          transaction.commit();
+          return updatedEvents;
+        }
+        // Without enlisted sessions, the events would be saved outside of the
+        // transaction anyway
+        rollback(transaction);
+      } catch (Exception e) {
+        rollback(transaction);
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Error while saving {} events of user '{}' in a single transaction, save them one by one",
+                    appointments.size(),
+                    username,
+                    e);
+        }
+      } finally {
+        correspondenceService.resumeFlush(username);
+      }
+    }
+
+    List<CalendarEvent> updatedEvents = new ArrayList<>();
+    for (Appointment appointment : appointments) {
+      try {
+        List<CalendarEvent> events = createOrUpdateEvent(appointment, username);
+        if (events != null) {
+          updatedEvents.addAll(events);
+        }
+      } catch (Exception e) {
+        LOG.warn("Error user '{}' create/update exchange item '{}'", username, appointment.getId().getUniqueId());
+      }
+    }
+    return updatedEvents;
+  }
+
   /**
    * @param username
    * @param appointmentId
@@ -310,15 +407,6 @@ public class ExoDataStorageService implements Serializable {
     return event;
   }
 
-  /**
-   * @param eventNode
-   * @return
-   * @throws Exception
-   */
-  public CalendarEvent getExoEventByNode(Node eventNode) throws Exception {
-    return getExoCalendarDataStorage().getEvent(eventNode);
-  }
-
   /**
    * @param uuid
    * @return
@@ -347,6 +435,29 @@ public class ExoDataStorageService implements Serializable {
     return getExoCalendarDataStorage().getUserEventByCalendar(username, calendarIds);
   }
 
+  /**
+   * Iterates over the eXo events of the calendar modified since the date. Each
+   * event is loaded when it's reached, so that the events can be processed
+   * and released one by one.
+   * 
+   * @param username
+   * @param calendar
+   * @param date null to iterate over all the events of the calendar
+   * @return
+   * @throws Exception
+   */
+  public Iterator<CalendarEvent> iterateExoEventsModifiedSince(String username, Calendar calendar, Date date) throws Exception {
+    Node calendarNode = getUserCalendarNode(username, calendar.getId());
+    if (calendarNode == null) {
+      return Collections.emptyIterator();
+    } else if (date == null) {
+      return new CalendarEventIterator(calendarNode.getNodes(), Calendar.TYPE_PRIVATE);
+    }
+    java.util.Calendar dateCalendar = java.util.Calendar.getInstance();
+    dateCalendar.setTime(date);
+    return new CalendarEventIterator(getEventNodesModifiedSince(calendarNode, dateCalendar), Calendar.TYPE_PRIVATE);
+  }
+
   /**
    * @param username
    * @param calendar
@@ -383,24 +494,31 @@ public class ExoDataStorageService implements Serializable {
 
   private List<CalendarEvent> getEventsByType(Node calendarHome, int type, java.util.Calendar date) throws Exception {
     List<CalendarEvent> events = new ArrayList<>();
+    Iterator<CalendarEvent> it = new CalendarEventIterator(getEventNodesModifiedSince(calendarHome, date), type);
+    while (it.hasNext()) {
+      events.add(it.next());
+    }
+    return events;
+  }
+
+  private NodeIterator getEventNodesModifiedSince(Node calendarHome, java.util.Calendar date) throws Exception {
     QueryManager qm = calendarHome.getSession().getWorkspace().getQueryManager();
     Query query = qm.createQuery(
                                  "select * from exo:calendarEvent where (jcr:path like '" + calendarHome.getPath()
                                      + "/%') and (exo:lastModifiedDate > TIMESTAMP '" + ISO8601.format(date) + "')",
                                  Query.SQL);
     QueryResult result = query.execute();
-    NodeIterator it = result.getNodes();
-    CalendarEvent calEvent;
-    while (it.hasNext()) {
-      calEvent = getExoCalendarDataStorage().getEvent(it.nextNode());
-      calEvent.setCalType(String.valueOf(type));
-      events.add(calEvent);
-    }
-    return events;
+    return result.getNodes();
+  }
+
+  private Node getUserCalendarNode(String username, String calendarId) throws Exception {
+    Node calendarHome = getExoCalendarDataStorage().getUserCalendarHome(username);
+    return calendarHome.hasNode(calendarId) ? calendarHome.getNode(calendarId) : null;
   }
 
   private void modifyUpdateDate(Node node, Date lastModifiedTime) throws Exception {
-    CalendarCreateUpdateAction.MODIFIED_DATE.set(lastModifiedTime.getTime());
+    List<String> eventIds = Collections.singletonList(node.getName());
+    startExchangeWrite(eventIds, lastModifiedTime);
     try {
       GregorianCalendar modifiedCalendar = new GregorianCalendar();
       modifiedCalendar.setTime(lastModifiedTime);
@@ -413,7 +531,24 @@ public class ExoDataStorageService implements Serializable {
       node.setProperty("exo:dateModified", modifiedCalendar);
       node.save();
     } finally {
-      CalendarCreateUpdateAction.MODIFIED_DATE.set(null);
+      endExchangeWrite(eventIds);
+    }
+  }
+
+  /**
+   * Registers the eXo events being written from Exchange, so that the JCR
+   * actions don't push their changes back to Exchange. The registration ends
+   * with {@link #endExchangeWrite(List)} once the events are saved.
+   */
+  private void startExchangeWrite(List<String> eventIds, Date lastModifiedTime) {
+    for (String eventId : eventIds) {
+      SynchronizationOriginRegistry.startWrite(eventId, String.valueOf(lastModifiedTime.getTime()));
+    }
+  }
+
+  private void endExchangeWrite(List<String> eventIds) {
+    for (String eventId : eventIds) {
+      SynchronizationOriginRegistry.endWrite(eventId);
     }
   }
 
@@ -464,7 +599,8 @@ public class ExoDataStorageService implements Serializable {
                                   getExoCalendarDataStorage(),
                                   getOrganizationService().getUserHandler());
         event.setRepeatType(CalendarEvent.RP_NOREPEAT);
-        CalendarCreateUpdateAction.MODIFIED_DATE.set(getLastModifiedDate(appointment).getTime());
+        List<String> eventIds = Collections.singletonList(event.getId());
+        startExchangeWrite(eventIds, getLastModifiedDate(appointment));
         try {
           if (isNew) {
             CalendarEvent storedEvent = getExoCalendarDataStorage().getEvent(username, event.getId());
@@ -478,7 +614,7 @@ public class ExoDataStorageService implements Serializable {
           }
           return updatedEvents;
         } finally {
-          CalendarCreateUpdateAction.MODIFIED_DATE.set(null);
+          endExchangeWrite(eventIds);
         }
         correspondenceService.setCorrespondingId(username, event.getId(), appointment.getId().getUniqueId());
       }
@@ -513,33 +649,28 @@ public class ExoDataStorageService implements Serializable {
         // or not
         //
         // Begin workaround
+        //
+        // All the properties of the master, including its recurrence and
+        // occurrences, are loaded once and then used for the whole conversion
+        loadRecurringMasterProperties(appointment);
         boolean isLastOccurenceDeleted = false;
-        appointment = Appointment.bind(appointment.getService(),
-                                       appointment.getId(),
-                                       new PropertySet(AppointmentSchema.Recurrence));
         Recurrence recurrence = appointment.getRecurrence();
         if (recurrence.hasEnd()) {
           Date recEndDate = recurrence.getEndDate();
-
-          appointment = Appointment.bind(appointment.getService(),
-                                         appointment.getId(),
-                                         new PropertySet(BasePropertySet.FirstClassProperties));
+          OccurrenceInfo lastOccurrence = appointment.getLastOccurrence();
           if (recEndDate == null) {
-            if (recurrence.getNumberOfOccurrences() != null && recurrence.getNumberOfOccurrences() > 0) {
-              recEndDate = appointment.getLastOccurrence().getStart();
+            if (recurrence.getNumberOfOccurrences() != null && recurrence.getNumberOfOccurrences() > 0 && lastOccurrence != null) {
+              recEndDate = lastOccurrence.getStart();
             } else {
               LOG.warn("Inconsistent data delivered by MS Exchange. The recurrent Event has end but end date is null: '"
                   + appointment.getSubject() + "', start:" + appointment.getStart() + ", end : " + appointment.getEnd());
             }
           }
-          Appointment tmpAppointment = Appointment.bind(appointment.getService(),
-                                                        appointment.getId(),
-                                                        new PropertySet(AppointmentSchema.LastOccurrence));
-          if (tmpAppointment.getLastOccurrence() == null) {
+          if (lastOccurrence == null) {
             LOG.warn("Can't find last occurence of recurrent Event : '" + appointment.getSubject() + "', start:"
                 + appointment.getStart() + ", end : " + appointment.getEnd());
-          } else {
-            isLastOccurenceDeleted = tmpAppointment.getLastOccurrence().getEnd().getTime() < recEndDate.getTime();
+          } else if (recEndDate != null) {
+            isLastOccurenceDeleted = lastOccurrence.getEnd().getTime() < recEndDate.getTime();
 
             if (isLastOccurenceDeleted && masterEvent.getExceptionIds() != null) {
               String pattern = EXCLUDE_ID_FORMAT_FIRST_CHARS.format(recEndDate);
@@ -551,9 +682,6 @@ public class ExoDataStorageService implements Serializable {
             }
           }
         }
-        appointment = Appointment.bind(appointment.getService(),
-                                       appointment.getId(),
-                                       new PropertySet(BasePropertySet.FirstClassProperties));
         // End workaround
 
         if (!isLastOccurenceDeleted && !isNew && verifyModifiedDatesConflict(masterEvent, appointment)) {
@@ -585,11 +713,12 @@ public class ExoDataStorageService implements Serializable {
             }
           }
 
-          CalendarCreateUpdateAction.MODIFIED_DATE.set(getLastModifiedDate(appointment).getTime());
+          List<String> eventIds = Collections.singletonList(masterEvent.getId());
+          startExchangeWrite(eventIds, getLastModifiedDate(appointment));
           try {
             getExoCalendarDataStorage().saveUserEvent(username, calendar.getId(), masterEvent, isNew);
           } finally {
-            CalendarCreateUpdateAction.MODIFIED_DATE.set(null);
+            endExchangeWrite(eventIds);
           }
         }
         List<CalendarEvent> exceptionalEventsToUpdate = new ArrayList<>();
@@ -604,7 +733,14 @@ public class ExoDataStorageService implements Serializable {
                                                                                 getOrganizationService().getUserHandler(),
                                                                                 correspondenceService);
         if (exceptionalEventsToUpdate != null && !exceptionalEventsToUpdate.isEmpty()) {
-          CalendarCreateUpdateAction.MODIFIED_DATE.set(getLastModifiedDate(appointment).getTime());
+          // The master is modified with its exceptional occurrences
+          Set<String> eventIds = new HashSet<>();
+          eventIds.add(masterEvent.getId());
+          for (CalendarEvent exceptionalEvent : exceptionalEventsToUpdate) {
+            eventIds.add(exceptionalEvent.getId());
+          }
+          List<String> writtenEventIds = new ArrayList<>(eventIds);
+          startExchangeWrite(writtenEventIds, getLastModifiedDate(appointment));
           try {
             getExoCalendarDataStorage().updateOccurrenceEvent(calendar.getId(),
                                                               calendar.getId(),
@@ -613,7 +749,7 @@ public class ExoDataStorageService implements Serializable {
                                                               exceptionalEventsToUpdate,
                                                               username);
           } finally {
-            CalendarCreateUpdateAction.MODIFIED_DATE.set(null);
+            endExchangeWrite(writtenEventIds);
           }
 
           // Set correspondance IDs
@@ -654,6 +790,99 @@ public class ExoDataStorageService implements Serializable {
     }
   }
 
+  private UserTransaction getUserTransaction() {
+    try {
+      if (transactionService == null) {
+        transactionService = CommonsUtils.getService(TransactionService.class);
+      }
+      if (transactionService == null) {
+        return null;
+      }
+      UserTransaction transaction = transactionService.getUserTransaction();
+      // Don't nest the page in a transaction already started by the caller
+      return transaction.getStatus() == Status.STATUS_NO_TRANSACTION ? transaction : null;
+    } catch (Exception e) {
+      LOG.debug("Transaction service isn't available, events will be saved one by one", e);
+      return null;
+    }
+  }
+
+  /**
+   * Enlists in the current transaction the sessions used by the calendar
+   * storage to save the events of the current thread.
+   * 
+   * @return false if a session can't be enlisted
+   */
+  private boolean enlistCalendarSessions() throws Exception {
+    Transaction transaction = transactionService.getTransactionManager().getTransaction();
+    Set<Session> sessions = new HashSet<>();
+    sessions.add(getExoCalendarDataStorage().getSession(getExoCalendarDataStorage().createSessionProvider()));
+    sessions.add(getExoCalendarDataStorage().getSession(getExoCalendarDataStorage().createSystemProvider()));
+    for (Session session : sessions) {
+      if (!(session instanceof XASession)) {
+        LOG.debug("Calendar storage session can't be enlisted in a transaction, events will be saved one by one");
+        return false;
+      }
+      if (!transaction.enlistResource(((XASession) session).getXAResource())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void rollback(UserTransaction transaction) {
+    try {
+      if (transaction.getStatus() != Status.STATUS_NO_TRANSACTION) {
+        transaction.rollback();
+      }
+    } catch (Exception e) {
+      LOG.warn("Error while rolling back events transaction", e);
+    }
+  }
+
+  /**
+   * Loads the events of the nodes lazily, the nodes which aren't events are
+   * skipped.
+   */
+  private final class CalendarEventIterator implements Iterator<CalendarEvent> {
+    private final NodeIterator nodes;
+
+    private final int          type;
+
+    private CalendarEvent      nextEvent;
+
+    private CalendarEventIterator(NodeIterator nodes, int type) {
+      this.nodes = nodes;
+      this.type = type;
+    }
+
+    @Override
+    public boolean hasNext() {
+      try {
+        while (nextEvent == null && nodes.hasNext()) {
+          Node node = nodes.nextNode();
+          if (node.isNodeType(Utils.EXO_CALENDAR_EVENT)) {
+            nextEvent = getExoCalendarDataStorage().getEvent(node);
+            nextEvent.setCalType(String.valueOf(type));
+          }
+        }
+      } catch (Exception e) {
+        throw new IllegalStateException("Error while loading eXo calendar event", e);
+      }
+      return nextEvent != null;
+    }
+
+    @Override
+    public CalendarEvent next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      CalendarEvent event = nextEvent;
+      nextEvent = null;
+      return event;
+    }
+  }
+
   public OrganizationService getOrganizationService() {
     if (this.organizationService == null) {
       this.organizationService = CommonsUtils.getService(OrganizationService.class);
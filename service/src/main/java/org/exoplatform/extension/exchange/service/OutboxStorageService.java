@@ -0,0 +1,207 @@
+package org.exoplatform.extension.exchange.service;
+
+import java.util.*;
+
+import javax.jcr.*;
+
+import org.exoplatform.commons.utils.CommonsUtils;
+import org.exoplatform.extension.exchange.model.OutboxChange;
+import org.exoplatform.services.jcr.ext.app.SessionProviderService;
+import org.exoplatform.services.jcr.ext.common.SessionProvider;
+import org.exoplatform.services.jcr.ext.hierarchy.NodeHierarchyCreator;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Durable queue of eXo events changes to push to Exchange. Changes are stored
+ * in the user application node, one uniquely named node per change, written
+ * and saved in a dedicated system session: the session where the event is
+ * modified is never used, so that recording a change can't make the save of
+ * the event fail. A change node is never modified by the session which
+ * records it once saved. The successive changes of an event are coalesced
+ * into the last one when they are read.
+ *
+ * @author Boubaker KHANFIR
+ */
+public class OutboxStorageService {
+  private static final Log               LOG                  = ExoLogger.getLogger(OutboxStorageService.class);
+
+  private static final String            OUTBOX_NODE_NAME     = "calendar-exchange-outbox";
+
+  private static final String            EVENT_ID_PROPERTY    = "eventId";
+
+  private static final String            CALENDAR_ID_PROPERTY = "calendarId";
+
+  private static final String            DELETED_PROPERTY     = "deleted";
+
+  private static final String            CHANGE_TIME_PROPERTY = "changeTime";
+
+  private static final String            ATTEMPTS_PROPERTY    = "attempts";
+
+  private static final String            NT_UNSTRUCTURED      = "nt:unstructured";
+
+  private NodeHierarchyCreator           hierarchyCreator;
+
+  private SessionProviderService         sessionProviderService;
+
+  /**
+   * Creates the outbox of the user if it doesn't exist yet, so that the
+   * recording of changes never creates it concurrently.
+   *
+   * @param username
+   * @throws Exception
+   */
+  public void createOutbox(String username) throws Exception {
+    SessionProvider sessionProvider = SessionProvider.createSystemProvider();
+    try {
+      getOrCreateOutboxNode(getUserApplicationNode(sessionProvider, username));
+    } finally {
+      sessionProvider.close();
+    }
+  }
+
+  /**
+   * Records the change of an eXo event in a dedicated session, saved right
+   * away, independently from the session where the event is modified.
+   *
+   * @param username
+   * @param eventId
+   * @param calendarId
+   * @param deleted true if the event was deleted, false if created or updated
+   * @param changeTime modification date set on the event, or deletion date
+   * @throws Exception
+   */
+  public void addChange(String username, String eventId, String calendarId, boolean deleted, long changeTime) throws Exception {
+    SessionProvider sessionProvider = SessionProvider.createSystemProvider();
+    try {
+      Node outboxNode = getOrCreateOutboxNode(getUserApplicationNode(sessionProvider, username));
+      Node changeNode = outboxNode.addNode(eventId + "-" + UUID.randomUUID().toString(), NT_UNSTRUCTURED);
+      changeNode.setProperty(EVENT_ID_PROPERTY, eventId);
+      changeNode.setProperty(CALENDAR_ID_PROPERTY, calendarId);
+      changeNode.setProperty(DELETED_PROPERTY, deleted);
+      changeNode.setProperty(CHANGE_TIME_PROPERTY, changeTime);
+      changeNode.setProperty(ATTEMPTS_PROPERTY, 0L);
+      outboxNode.getSession().save();
+    } finally {
+      sessionProvider.close();
+    }
+  }
+
+  /**
+   * @param username
+   * @return last change of each event to push to Exchange, ordered by
+   *         modification time
+   * @throws Exception
+   */
+  public List<OutboxChange> getChanges(String username) throws Exception {
+    Node outboxNode = getOutboxNode(username);
+    if (outboxNode == null) {
+      return Collections.emptyList();
+    }
+    Map<String, OutboxChange> changes = new HashMap<>();
+    NodeIterator nodeIterator = outboxNode.getNodes();
+    while (nodeIterator.hasNext()) {
+      Node changeNode = nodeIterator.nextNode();
+      if (!changeNode.hasProperty(EVENT_ID_PROPERTY)) {
+        continue;
+      }
+      OutboxChange change = new OutboxChange(changeNode.getName(),
+                                             changeNode.getProperty(EVENT_ID_PROPERTY).getString(),
+                                             changeNode.hasProperty(CALENDAR_ID_PROPERTY) ? changeNode.getProperty(CALENDAR_ID_PROPERTY)
+                                                                                                      .getString()
+                                                                                          : null,
+                                             changeNode.hasProperty(DELETED_PROPERTY)
+                                                 && changeNode.getProperty(DELETED_PROPERTY).getBoolean(),
+                                             changeNode.getProperty(CHANGE_TIME_PROPERTY).getLong(),
+                                             (int) changeNode.getProperty(ATTEMPTS_PROPERTY).getLong());
+      changes.merge(change.getEventId(),
+                    change,
+                    (previous, next) -> next.getChangeTime() >= previous.getChangeTime() ? next : previous);
+    }
+    List<OutboxChange> lastChanges = new ArrayList<>(changes.values());
+    lastChanges.sort(Comparator.comparingLong(OutboxChange::getChangeTime));
+    return lastChanges;
+  }
+
+  /**
+   * Removes a change pushed to Exchange with the previous changes of the same
+   * event, the changes recorded meanwhile are kept.
+   *
+   * @param username
+   * @param change
+   * @throws Exception
+   */
+  public void removeChange(String username, OutboxChange change) throws Exception {
+    Node outboxNode = getOutboxNode(username);
+    if (outboxNode == null) {
+      return;
+    }
+    boolean removed = false;
+    NodeIterator nodeIterator = outboxNode.getNodes();
+    while (nodeIterator.hasNext()) {
+      Node changeNode = nodeIterator.nextNode();
+      if (changeNode.hasProperty(EVENT_ID_PROPERTY)
+          && change.getEventId().equals(changeNode.getProperty(EVENT_ID_PROPERTY).getString())
+          && changeNode.getProperty(CHANGE_TIME_PROPERTY).getLong() <= change.getChangeTime()) {
+        changeNode.remove();
+        removed = true;
+      }
+    }
+    if (removed) {
+      outboxNode.getSession().save();
+    }
+  }
+
+  /**
+   * Increments the attempts count of a change which failed to be pushed to
+   * Exchange.
+   *
+   * @param username
+   * @param change
+   * @throws Exception
+   */
+  public void setChangeFailed(String username, OutboxChange change) throws Exception {
+    change.setAttempts(change.getAttempts() + 1);
+    Node outboxNode = getOutboxNode(username);
+    if (outboxNode != null && outboxNode.hasNode(change.getChangeId())) {
+      outboxNode.getNode(change.getChangeId()).setProperty(ATTEMPTS_PROPERTY, (long) change.getAttempts());
+      outboxNode.getSession().save();
+    }
+  }
+
+  private synchronized Node getOrCreateOutboxNode(Node applicationNode) throws Exception {
+    if (applicationNode.hasNode(OUTBOX_NODE_NAME)) {
+      return applicationNode.getNode(OUTBOX_NODE_NAME);
+    }
+    Node outboxNode = applicationNode.addNode(OUTBOX_NODE_NAME, NT_UNSTRUCTURED);
+    applicationNode.save();
+    return outboxNode;
+  }
+
+  private Node getOutboxNode(String username) throws Exception {
+    Node node = getUserApplicationNode(getSessionProviderService().getSystemSessionProvider(null), username);
+    return node.hasNode(OUTBOX_NODE_NAME) ? node.getNode(OUTBOX_NODE_NAME) : null;
+  }
+
+  private Node getUserApplicationNode(SessionProvider sessionProvider, String username) throws Exception {
+    Node node = getHierarchyCreator().getUserApplicationNode(sessionProvider, username);
+    if (node == null) {
+      throw new IllegalStateException("User application node not found. Please fix this and try later.");
+    }
+    return node;
+  }
+
+  public NodeHierarchyCreator getHierarchyCreator() {
+    if (hierarchyCreator == null) {
+      hierarchyCreator = CommonsUtils.getService(NodeHierarchyCreator.class);
+    }
+    return hierarchyCreator;
+  }
+
+  public SessionProviderService getSessionProviderService() {
+    if (sessionProviderService == null) {
+      sessionProviderService = CommonsUtils.getService(SessionProviderService.class);
+    }
+    return sessionProviderService;
+  }
+}
@@ -0,0 +1,156 @@
+package org.exoplatform.extension.exchange.service;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Registry of the changes written by the synchronization, used to recognize
+ * their echo when they are notified back by the other side. Each change is
+ * recorded with the eXo event identifier, the version written and the origin
+ * of the change:
+ * <ul>
+ * <li>{@link Origin#EXCHANGE}: an Exchange change written in eXo, the version
+ * is the modification date set on the eXo event, so that the event isn't
+ * pushed back to Exchange as long as it isn't modified again.</li>
+ * <li>{@link Origin#EXO}: an eXo change written in Exchange, the version is
+ * the change key of the saved Exchange item, so that the item isn't retrieved
+ * again when its change is notified.</li>
+ * </ul>
+ * Versions are compared exactly, a later change of the event is never taken as
+ * an echo. They expire after a delay, the modification dates compared by the
+ * synchronization still apply once they are expired.
+ * <p>
+ * The writes of Exchange changes in eXo are also registered while they are in
+ * progress, whatever the thread saving the event, so that the JCR actions
+ * don't record them as user changes.
+ *
+ * @author Boubaker KHANFIR
+ */
+public class SynchronizationOriginRegistry {
+
+  private static final String                             DELETED_VERSION = "deleted";
+
+  private static final int                                MAX_ENTRIES     = 100000;
+
+  private static final long                               VERSION_TTL     = TimeUnit.HOURS.toMillis(1);
+
+  private static final Map<Origin, Cache<String, String>> versions        = new EnumMap<>(Origin.class);
+
+  // Versions of eXo events being written from Exchange, by event identifier
+  private static final Map<String, String>                writes          = new ConcurrentHashMap<>();
+
+  static {
+    for (Origin origin : Origin.values()) {
+      versions.put(origin,
+                   CacheBuilder.newBuilder()
+                               .maximumSize(MAX_ENTRIES)
+                               .expireAfterWrite(VERSION_TTL, TimeUnit.MILLISECONDS)
+                               .<String, String> build());
+    }
+  }
+
+  private SynchronizationOriginRegistry() {
+  }
+
+  /**
+   * Records a change of the event written by the synchronization. The change
+   * replaces the change of the event previously recorded from the same origin.
+   *
+   * @param eventId eXo event identifier
+   * @param version version written by the synchronization
+   * @param origin side where the change was made
+   */
+  public static void record(String eventId, String version, Origin origin) {
+    if (eventId != null && version != null) {
+      versions.get(origin).put(eventId, version);
+    }
+  }
+
+  /**
+   * Registers the write of an Exchange change in the eXo event until
+   * {@link #endWrite(String)} is called, and records its version.
+   *
+   * @param eventId eXo event identifier
+   * @param version modification date written on the eXo event
+   */
+  public static void startWrite(String eventId, String version) {
+    if (eventId != null && version != null) {
+      writes.put(eventId, version);
+      record(eventId, version, Origin.EXCHANGE);
+    }
+  }
+
+  /**
+   * @param eventId eXo event identifier
+   */
+  public static void endWrite(String eventId) {
+    if (eventId != null) {
+      writes.remove(eventId);
+    }
+  }
+
+  /**
+   * @param eventId eXo event identifier
+   * @return modification date written on the eXo event by the write of an
+   *         Exchange change in progress, null if the event isn't being written
+   *         from Exchange
+   */
+  public static String getWriteVersion(String eventId) {
+    return eventId == null ? null : writes.get(eventId);
+  }
+
+  /**
+   * Records the deletion of the event by the synchronization.
+   *
+   * @param eventId eXo event identifier
+   * @param origin side where the event was deleted
+   */
+  public static void recordDeletion(String eventId, Origin origin) {
+    record(eventId, DELETED_VERSION, origin);
+  }
+
+  /**
+   * @param eventId eXo event identifier
+   * @param origin
+   * @return version of the last change of the event written by the
+   *         synchronization from the origin, null if none is recorded or if
+   *         the event was deleted
+   */
+  public static String getVersion(String eventId, Origin origin) {
+    if (eventId == null) {
+      return null;
+    }
+    String version = versions.get(origin).getIfPresent(eventId);
+    return DELETED_VERSION.equals(version) ? null : version;
+  }
+
+  /**
+   * @param eventId eXo event identifier
+   * @param version version notified by the other side
+   * @param origin
+   * @return true if the version is the one written by the synchronization for
+   *         a change from the origin
+   */
+  public static boolean isEcho(String eventId, String version, Origin origin) {
+    return version != null && version.equals(getVersion(eventId, origin));
+  }
+
+  /**
+   * @param eventId eXo event identifier
+   * @param origin
+   * @return true if the event was deleted by the synchronization for a
+   *         deletion from the origin
+   */
+  public static boolean isDeletionEcho(String eventId, Origin origin) {
+    return eventId != null && DELETED_VERSION.equals(versions.get(origin).getIfPresent(eventId));
+  }
+
+  public enum Origin {
+    EXCHANGE, EXO
+  }
+}
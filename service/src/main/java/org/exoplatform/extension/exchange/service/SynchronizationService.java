@@ -2,16 +2,21 @@ package org.exoplatform.extension.exchange.service;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.commons.lang.StringUtils;
 import org.picocontainer.Startable;
 
+import com.google.common.util.concurrent.Striped;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.exoplatform.calendar.service.CalendarService;
 import org.exoplatform.commons.utils.CommonsUtils;
 import org.exoplatform.container.xml.InitParams;
 import org.exoplatform.extension.exchange.task.ExchangeIntegrationTask;
+import org.exoplatform.extension.exchange.task.PooledExchangeService;
+import org.exoplatform.extension.exchange.task.SynchronizationScheduler;
 import org.exoplatform.extension.exchange.task.UserIntegrationFacade;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
@@ -39,6 +44,44 @@ public class SynchronizationService implements Startable {
 
   private static final int                      EXCHANGE_LISTENER_SCHEDULER_DELAY_MINIMUM = 5;
 
+  private static final String                   EXCHANGE_SCHEDULER_MAX_DELAY_NAME          = "exchange.scheduler.delay.max";
+
+  private static final String                   EXCHANGE_SCHEDULER_THREADS_NAME           = "exchange.scheduler.threads";
+
+  private static final int                      EXCHANGE_SCHEDULER_THREADS_DEFAULT        = 10;
+
+  private static final long                     EXCHANGE_SCHEDULER_INITIAL_DELAY          = TimeUnit.SECONDS.toMillis(10);
+
+  private static final String                   EXCHANGE_NOTIFICATION_MODE_NAME           = "exchange.notification.mode";
+
+  private static final String                   EXCHANGE_NOTIFICATION_MODE_STREAMING      = "streaming";
+
+  private static final String                   EXCHANGE_ITEMS_BATCH_SIZE_NAME            = "exchange.synchronize.batch.size";
+
+  private static final int                      EXCHANGE_ITEMS_BATCH_SIZE_DEFAULT         = 50;
+
+  private static final String                   EXCHANGE_FIRST_SYNC_THREADS_NAME          = "exchange.synchronize.first.threads";
+
+  private static final int                      EXCHANGE_FIRST_SYNC_THREADS_DEFAULT       = 4;
+
+  private static final String                   EXCHANGE_SERVER_MAX_REQUESTS_NAME         = "exchange.server.max.concurrent.requests";
+
+  private static final int                      EXCHANGE_SERVER_MAX_REQUESTS_DEFAULT      = 20;
+
+  private static final String                   EXCHANGE_SERVER_MAX_CONNECTIONS_NAME      = "exchange.server.max.connections";
+
+  private static final int                      EXCHANGE_SERVER_MAX_CONNECTIONS_DEFAULT   = 100;
+
+  private static final String                   EXCHANGE_LOGIN_THREADS_NAME               = "exchange.login.threads";
+
+  private static final int                      EXCHANGE_LOGIN_THREADS_DEFAULT            = EXCHANGE_SCHEDULER_THREADS_DEFAULT;
+
+  // Maximum number of logins waiting for a login thread, further logins are
+  // ignored until the queue is drained
+  private static final int                      EXCHANGE_LOGIN_QUEUE_CAPACITY             = 5000;
+
+  private static final int                      USERS_LOCKS_STRIPES                       = 64;
+
   private static final String                   EXCHANGE_SYNCHRONIZE_ALL                  = "exchange.synchronize.all.folders";
 
   private static final String                   EXCHANGE_MAX_DAYS                         = "exchange.synchronize.max.days";
@@ -48,11 +91,27 @@ public class SynchronizationService implements Startable {
   private int                                   schedulerDelayInSeconds                   =
                                                                         EXCHANGE_LISTENER_SCHEDULER_DELAY_MINIMUM;
 
-  private final ScheduledExecutorService        scheduledExecutor;
+  private int                                   schedulerMaxDelayInSeconds;
+
+  private int                                   schedulerThreads                          = EXCHANGE_SCHEDULER_THREADS_DEFAULT;
+
+  private final SynchronizationScheduler        scheduler;
+
+  private final ExecutorService                 loginExecutor;
+
+  // Sequence of logins and logouts, used to drop a login bootstrapped after
+  // the logout of the user
+  private final AtomicLong                      loginsSequence                            = new AtomicLong();
+
+  private final Map<String, Long>               logoutsSequences                          = new ConcurrentHashMap<>();
 
-  private final Map<String, ScheduledFuture<?>> futures                                   = new HashMap<>();
+  private final Map<String, ExchangeIntegrationTask> tasks                                = new ConcurrentHashMap<>();
 
-  private final Map<String, Runnable>           runnables                                 = new HashMap<>();
+  // Sequence of the login which started the task of each user
+  private final Map<String, Long>               tasksLoginsSequences                      = new ConcurrentHashMap<>();
+
+  // Locks used to serialize login and logout of a same user
+  private final Striped<Lock>                   usersLocks                                = Striped.lock(USERS_LOCKS_STRIPES);
 
   private final ExoDataStorageService           exoStorageService;
 
@@ -76,6 +135,18 @@ public class SynchronizationService implements Startable {
 
   private int                                   maxFirstSynchronizationDays               = 365;
 
+  private boolean                               streamingNotifications                    = false;
+
+  private int                                   itemsBatchSize                            = EXCHANGE_ITEMS_BATCH_SIZE_DEFAULT;
+
+  private int                                   firstSynchronizationThreads               = EXCHANGE_FIRST_SYNC_THREADS_DEFAULT;
+
+  private int                                   serverMaxConcurrentRequests               = EXCHANGE_SERVER_MAX_REQUESTS_DEFAULT;
+
+  private int                                   serverMaxConnections                      = EXCHANGE_SERVER_MAX_CONNECTIONS_DEFAULT;
+
+  private int                                   loginThreads                              = EXCHANGE_LOGIN_THREADS_DEFAULT;
+
   public SynchronizationService(ExoDataStorageService exoStorageService,
                                 ExchangeDataStorageService exchangeStorageService,
                                 CorrespondenceService correspondenceService,
@@ -84,9 +155,6 @@ public class SynchronizationService implements Startable {
     this.exchangeStorageService = exchangeStorageService;
     this.correspondenceService = correspondenceService;
 
-    ThreadFactory namedThreadFactory = new ThreadFactoryBuilder().setNameFormat("ExchangeSynchronization-%d").build();
-    this.scheduledExecutor = Executors.newScheduledThreadPool(10, namedThreadFactory);
-
     if (params.containsKey(EXCHANGE_SERVER_URL_PARAM_NAME)
         && !params.getValueParam(EXCHANGE_SERVER_URL_PARAM_NAME).getValue().isEmpty()) {
       this.exchangeServerURL = params.getValueParam(EXCHANGE_SERVER_URL_PARAM_NAME).getValue();
@@ -117,6 +185,31 @@ public class SynchronizationService implements Startable {
                EXCHANGE_LISTENER_SCHEDULER_DELAY_MINIMUM);
       this.schedulerDelayInSeconds = EXCHANGE_LISTENER_SCHEDULER_DELAY_MINIMUM;
     }
+    this.schedulerMaxDelayInSeconds = schedulerDelayInSeconds;
+    if (params.containsKey(EXCHANGE_SCHEDULER_MAX_DELAY_NAME)) {
+      String schedulerMaxDelayInSecondsString = params.getValueParam(EXCHANGE_SCHEDULER_MAX_DELAY_NAME).getValue();
+      if (StringUtils.isNotBlank(schedulerMaxDelayInSecondsString)) {
+        this.schedulerMaxDelayInSeconds = Integer.parseInt(schedulerMaxDelayInSecondsString.trim());
+      }
+    }
+    if (schedulerMaxDelayInSeconds < schedulerDelayInSeconds) {
+      LOG.warn("Echange Synchronization Service: Maximum Check Period in seconds (init-param {}) is set under {} seconds. Adaptive check period is disabled.",
+               EXCHANGE_SCHEDULER_MAX_DELAY_NAME,
+               schedulerDelayInSeconds);
+      this.schedulerMaxDelayInSeconds = schedulerDelayInSeconds;
+    }
+    if (params.containsKey(EXCHANGE_SCHEDULER_THREADS_NAME)) {
+      String schedulerThreadsString = params.getValueParam(EXCHANGE_SCHEDULER_THREADS_NAME).getValue();
+      if (StringUtils.isNotBlank(schedulerThreadsString)) {
+        this.schedulerThreads = Integer.parseInt(schedulerThreadsString.trim());
+      }
+    }
+    if (schedulerThreads < 1) {
+      LOG.warn("Echange Synchronization Service: Number of synchronization threads (init-param {}) is invalid. Default will be used: {}.",
+               EXCHANGE_SCHEDULER_THREADS_NAME,
+               EXCHANGE_SCHEDULER_THREADS_DEFAULT);
+      this.schedulerThreads = EXCHANGE_SCHEDULER_THREADS_DEFAULT;
+    }
     if (params.containsKey(EXCHANGE_DELETE_CALENDAR_ON_UNSYNC)) {
       String deleteExoCalendarOnUnsyncString = params.getValueParam(EXCHANGE_DELETE_CALENDAR_ON_UNSYNC).getValue();
       if (deleteExoCalendarOnUnsyncString != null && deleteExoCalendarOnUnsyncString.equals("true")) {
@@ -136,16 +229,104 @@ public class SynchronizationService implements Startable {
         this.maxFirstSynchronizationDays = Integer.parseInt(exchangeMaxDaysString);
       }
     }
+    if (params.containsKey(EXCHANGE_ITEMS_BATCH_SIZE_NAME)) {
+      String itemsBatchSizeString = params.getValueParam(EXCHANGE_ITEMS_BATCH_SIZE_NAME).getValue();
+      if (StringUtils.isNotBlank(itemsBatchSizeString)) {
+        this.itemsBatchSize = Integer.parseInt(itemsBatchSizeString.trim());
+      }
+    }
+    if (itemsBatchSize < 1) {
+      LOG.warn("Echange Synchronization Service: Items batch size (init-param {}) is invalid. Default will be used: {}.",
+               EXCHANGE_ITEMS_BATCH_SIZE_NAME,
+               EXCHANGE_ITEMS_BATCH_SIZE_DEFAULT);
+      this.itemsBatchSize = EXCHANGE_ITEMS_BATCH_SIZE_DEFAULT;
+    }
+    if (params.containsKey(EXCHANGE_FIRST_SYNC_THREADS_NAME)) {
+      String firstSynchronizationThreadsString = params.getValueParam(EXCHANGE_FIRST_SYNC_THREADS_NAME).getValue();
+      if (StringUtils.isNotBlank(firstSynchronizationThreadsString)) {
+        this.firstSynchronizationThreads = Integer.parseInt(firstSynchronizationThreadsString.trim());
+      }
+    }
+    if (firstSynchronizationThreads < 1) {
+      LOG.warn("Echange Synchronization Service: Number of first synchronization threads per user (init-param {}) is invalid. Default will be used: {}.",
+               EXCHANGE_FIRST_SYNC_THREADS_NAME,
+               EXCHANGE_FIRST_SYNC_THREADS_DEFAULT);
+      this.firstSynchronizationThreads = EXCHANGE_FIRST_SYNC_THREADS_DEFAULT;
+    }
+    if (params.containsKey(EXCHANGE_SERVER_MAX_REQUESTS_NAME)) {
+      String serverMaxConcurrentRequestsString = params.getValueParam(EXCHANGE_SERVER_MAX_REQUESTS_NAME).getValue();
+      if (StringUtils.isNotBlank(serverMaxConcurrentRequestsString)) {
+        this.serverMaxConcurrentRequests = Integer.parseInt(serverMaxConcurrentRequestsString.trim());
+      }
+    }
+    if (serverMaxConcurrentRequests < 1) {
+      LOG.warn("Echange Synchronization Service: Maximum concurrent requests per Exchange server (init-param {}) is invalid. Default will be used: {}.",
+               EXCHANGE_SERVER_MAX_REQUESTS_NAME,
+               EXCHANGE_SERVER_MAX_REQUESTS_DEFAULT);
+      this.serverMaxConcurrentRequests = EXCHANGE_SERVER_MAX_REQUESTS_DEFAULT;
+    }
+    if (params.containsKey(EXCHANGE_SERVER_MAX_CONNECTIONS_NAME)) {
+      String serverMaxConnectionsString = params.getValueParam(EXCHANGE_SERVER_MAX_CONNECTIONS_NAME).getValue();
+      if (StringUtils.isNotBlank(serverMaxConnectionsString)) {
+        this.serverMaxConnections = Integer.parseInt(serverMaxConnectionsString.trim());
+      }
+    }
+    if (serverMaxConnections < 1) {
+      LOG.warn("Echange Synchronization Service: Maximum connections per Exchange server (init-param {}) is invalid. Default will be used: {}.",
+               EXCHANGE_SERVER_MAX_CONNECTIONS_NAME,
+               EXCHANGE_SERVER_MAX_CONNECTIONS_DEFAULT);
+      this.serverMaxConnections = EXCHANGE_SERVER_MAX_CONNECTIONS_DEFAULT;
+    }
+    if (params.containsKey(EXCHANGE_LOGIN_THREADS_NAME)) {
+      String loginThreadsString = params.getValueParam(EXCHANGE_LOGIN_THREADS_NAME).getValue();
+      if (StringUtils.isNotBlank(loginThreadsString)) {
+        this.loginThreads = Integer.parseInt(loginThreadsString.trim());
+      }
+    }
+    if (loginThreads < 1) {
+      LOG.warn("Echange Synchronization Service: Number of login threads (init-param {}) is invalid. Default will be used: {}.",
+               EXCHANGE_LOGIN_THREADS_NAME,
+               EXCHANGE_LOGIN_THREADS_DEFAULT);
+      this.loginThreads = EXCHANGE_LOGIN_THREADS_DEFAULT;
+    }
+    if (params.containsKey(EXCHANGE_NOTIFICATION_MODE_NAME)) {
+      String notificationMode = params.getValueParam(EXCHANGE_NOTIFICATION_MODE_NAME).getValue();
+      this.streamingNotifications = StringUtils.equalsIgnoreCase(StringUtils.trim(notificationMode),
+                                                                 EXCHANGE_NOTIFICATION_MODE_STREAMING);
+    }
+    this.scheduler = new SynchronizationScheduler(schedulerThreads,
+                                                  TimeUnit.SECONDS.toMillis(schedulerDelayInSeconds),
+                                                  TimeUnit.SECONDS.toMillis(schedulerMaxDelayInSeconds));
+    this.scheduler.setStatisticsListener(correspondenceService::logStatistics);
+    this.loginExecutor = new ThreadPoolExecutor(loginThreads,
+                                                loginThreads,
+                                                0L,
+                                                TimeUnit.MILLISECONDS,
+                                                new LinkedBlockingQueue<>(EXCHANGE_LOGIN_QUEUE_CAPACITY),
+                                                new ThreadFactoryBuilder().setNameFormat("ExchangeLogin-%d")
+                                                                          .setDaemon(true)
+                                                                          .build());
   }
 
   @Override
   public void start() {
+    scheduler.start();
     LOG.info("Echange Synchronization Service: Successfully started.");
   }
 
   @Override
   public void stop() {
-    scheduledExecutor.shutdownNow();
+    loginExecutor.shutdownNow();
+    scheduler.stop();
+    for (String username : new ArrayList<>(tasks.keySet())) {
+      closeTaskIfExists(username);
+    }
+    correspondenceService.flushAll();
+    PooledExchangeService.closeAll();
+  }
+
+  public SynchronizationScheduler getScheduler() {
+    return scheduler;
   }
 
   public String getExchangeDomain() {
@@ -157,12 +338,38 @@ public class SynchronizationService implements Startable {
   }
 
   /**
-   * Register User with Exchange services.
+   * Register User with Exchange services. The Exchange session is
+   * bootstrapped asynchronously, so that the login doesn't wait for Exchange
+   * responses. The password is cleared once the bootstrap is done.
    * 
    * @param username
    * @param password
    */
-  public void userLoggedIn(final String username, final String password) throws Exception {
+  public void userLoggedIn(final String username, final char[] password) {
+    final long loginSequence = loginsSequence.incrementAndGet();
+    try {
+      loginExecutor.execute(() -> {
+        try {
+          bootstrapUserSynchronization(username, password, loginSequence);
+        } catch (Exception e) {
+          LOG.warn("Exchange integration error for user '" + username + "' : ", e);
+        } finally {
+          clearPassword(password);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      clearPassword(password);
+      if (loginExecutor.isShutdown()) {
+        LOG.warn("Exchange Synchronization Service is stopped, user '{}' login is ignored.", username);
+      } else {
+        LOG.warn("Exchange Synchronization Service: too many logins are waiting for Exchange, user '{}' login is ignored. Consider increasing {}.",
+                 username,
+                 EXCHANGE_LOGIN_THREADS_NAME);
+      }
+    }
+  }
+
+  private void bootstrapUserSynchronization(String username, char[] password, long loginSequence) throws Exception {
     String exchangeStoredUsername =
                                   UserIntegrationFacade.getUserArrtibute(getOrganizationService(),
                                                                          username,
@@ -180,17 +387,28 @@ public class SynchronizationService implements Startable {
                                     UserIntegrationFacade.getUserArrtibute(getOrganizationService(),
                                                                            username,
                                                                            UserIntegrationFacade.USER_EXCHANGE_PASSWORD_ATTRIBUTE);
-      startExchangeSynchronizationTask(username,
-                                       exchangeStoredUsername,
-                                       exchangeStoredPassword,
-                                       exchangeStoredDomainName,
-                                       exchangeStoredServerName);
+      char[] storedPassword = exchangeStoredPassword == null ? null : exchangeStoredPassword.toCharArray();
+      try {
+        startExchangeSynchronizationTask(username,
+                                         exchangeStoredUsername,
+                                         storedPassword,
+                                         exchangeStoredDomainName,
+                                         exchangeStoredServerName,
+                                         loginSequence);
+      } finally {
+        clearPassword(storedPassword);
+      }
     } else if (StringUtils.isNotBlank(exchangeDomain) && StringUtils.isNotBlank(exchangeServerURL)) {
       if (LOG.isTraceEnabled()) {
         LOG.trace("Exchange Synchronization Service: User '" + username
             + "' have not yet set parameters, use default Exchange server settings.");
       }
-      startExchangeSynchronizationTask(username, username, password, exchangeDomain, exchangeServerURL);
+      startExchangeSynchronizationTask(username,
+                                       username,
+                                       password,
+                                       exchangeDomain,
+                                       exchangeServerURL,
+                                       loginSequence);
     } else {
       LOG.warn("Exchange Service is unvailable, please set parameters.");
     }
@@ -209,8 +427,27 @@ public class SynchronizationService implements Startable {
                                                final String password,
                                                String exchangeDomain,
                                                String exchangeServerURL) {
+    char[] passwordChars = password == null ? null : password.toCharArray();
+    try {
+      startExchangeSynchronizationTask(username,
+                                       exchangeUsername,
+                                       passwordChars,
+                                       exchangeDomain,
+                                       exchangeServerURL,
+                                       loginsSequence.incrementAndGet());
+    } finally {
+      clearPassword(passwordChars);
+    }
+  }
+
+  private void startExchangeSynchronizationTask(final String username,
+                                                String exchangeUsername,
+                                                final char[] password,
+                                                String exchangeDomain,
+                                                String exchangeServerURL,
+                                                long loginSequence) {
     try {
-      if (StringUtils.isBlank(password) || StringUtils.isBlank(exchangeUsername) || StringUtils.isBlank(exchangeServerURL)) {
+      if (password == null || password.length == 0 || StringUtils.isBlank(exchangeUsername) || StringUtils.isBlank(exchangeServerURL)) {
         return;
       }
       exchangeUsername = exchangeUsername.trim();
@@ -219,32 +456,62 @@ public class SynchronizationService implements Startable {
         throw new IllegalStateException("Identity of user '" + username + "' not found.");
       }
 
-      // Close other tasks if already exists, this can happens when user is
-      // still logged in in other browser
-      closeTaskIfExists(username);
+      if (isLoggedOutSince(username, loginSequence)) {
+        LOG.debug("User '{}' logged out before the exchange synchronization task is started.", username);
+        return;
+      }
 
-      // Scheduled task: listen the changes made on MS Exchange Calendar
-      Runnable schedulerCommand = new ExchangeIntegrationTask(getCalendarService(),
-                                                              exoStorageService,
-                                                              exchangeStorageService,
-                                                              correspondenceService,
-                                                              identity,
-                                                              exchangeUsername,
-                                                              password,
-                                                              exchangeDomain,
-                                                              exchangeServerURL,
-                                                              synchronizeAllExchangeFolders,
-                                                              deleteExoCalendarOnUnsync,
-                                                              maxFirstSynchronizationDays);
-
-      ScheduledFuture<?> future = scheduledExecutor.scheduleWithFixedDelay(schedulerCommand,
-                                                                           10,
-                                                                           schedulerDelayInSeconds,
-                                                                           TimeUnit.SECONDS);
-
-      // Add future task to the map to destroy thread when the user logout
-      futures.put(username, future);
-      runnables.put(username, schedulerCommand);
+      // Scheduled task: listen the changes made on MS Exchange Calendar. It's
+      // authenticated without holding the user lock, so that slow Exchange
+      // responses don't block the logins and logouts of other users
+      ExchangeIntegrationTask schedulerCommand = new ExchangeIntegrationTask(scheduler,
+                                                                             getCalendarService(),
+                                                                             exoStorageService,
+                                                                             exchangeStorageService,
+                                                                             correspondenceService,
+                                                                             identity,
+                                                                             exchangeUsername,
+                                                                             password,
+                                                                             exchangeDomain,
+                                                                             exchangeServerURL,
+                                                                             synchronizeAllExchangeFolders,
+                                                                             deleteExoCalendarOnUnsync,
+                                                                             maxFirstSynchronizationDays,
+                                                                             itemsBatchSize,
+                                                                             firstSynchronizationThreads,
+                                                                             serverMaxConcurrentRequests,
+                                                                             serverMaxConnections,
+                                                                             streamingNotifications);
+
+      Lock userLock = usersLocks.get(username);
+      userLock.lock();
+      try {
+        if (isLoggedOutSince(username, loginSequence)) {
+          // The user logged out while the task was authenticating
+          schedulerCommand.interrupt();
+          LOG.debug("User '{}' logged out before the exchange synchronization task is started.", username);
+          return;
+        }
+        Long taskLoginSequence = tasksLoginsSequences.get(username);
+        if (taskLoginSequence != null && taskLoginSequence > loginSequence) {
+          // The task of a more recent login was started meanwhile
+          schedulerCommand.interrupt();
+          return;
+        }
+        // Close other tasks if already exists, this can happens when user is
+        // still logged in in other browser
+        closeTaskIfExists(username);
+
+        schedulerCommand.getIntegrationService().register();
+        tasks.put(username, schedulerCommand);
+        tasksLoginsSequences.put(username, loginSequence);
+        scheduler.schedule(username, schedulerCommand, EXCHANGE_SCHEDULER_INITIAL_DELAY);
+        // The logouts before this login don't need to be remembered anymore
+        logoutsSequences.computeIfPresent(username,
+                                          (key, logoutSequence) -> logoutSequence < loginSequence ? null : logoutSequence);
+      } finally {
+        userLock.unlock();
+      }
 
       LOG.info("User '" + username + "' logged in, exchange synchronization task started.");
     } catch (Exception e) {
@@ -262,38 +529,67 @@ public class SynchronizationService implements Startable {
    */
   public void userLoggedOut(String username) {
     ConversationRegistry conversationRegistry = CommonsUtils.getService(ConversationRegistry.class);
-    List<StateKey> stateKeys = conversationRegistry.getStateKeys(username);
-    if (stateKeys == null || stateKeys.isEmpty()) {
-      closeTaskIfExists(username);
+    Lock userLock = usersLocks.get(username);
+    userLock.lock();
+    try {
+      List<StateKey> stateKeys = conversationRegistry.getStateKeys(username);
+      if (stateKeys == null || stateKeys.isEmpty()) {
+        logoutsSequences.put(username, loginsSequence.incrementAndGet());
+        closeTaskIfExists(username);
+      }
+    } finally {
+      userLock.unlock();
     }
   }
 
   /**
-   * Forces the execution of synchronization
+   * Forces the execution of synchronization as soon as a worker is available.
+   * The request is ignored when the synchronization queue is saturated.
    * 
    * @param username
+   * @return true if the synchronization is planned
    */
-  public void synchronize(String username) {
-    Runnable command = runnables.get(username);
-    if (command != null) {
-      command.run();
+  public boolean synchronize(String username) {
+    return scheduler.trigger(username);
+  }
+
+  private boolean isLoggedOutSince(String username, long loginSequence) {
+    Long logoutSequence = logoutsSequences.get(username);
+    return logoutSequence != null && logoutSequence > loginSequence;
+  }
+
+  private void clearPassword(char[] password) {
+    if (password != null) {
+      Arrays.fill(password, '\0');
     }
   }
 
   private void closeTaskIfExists(String username) {
-    ScheduledFuture<?> future = futures.remove(username);
-    if (future != null) {
-      future.cancel(true);
-      UserIntegrationFacade integrationService = UserIntegrationFacade.getInstance(username);
-      if (integrationService != null) {
-        try {
-          integrationService.removeInstance();
-        } catch (Throwable e) {
-          // Nothing to do, just log this.
-          LOG.error(e);
+    Lock userLock = usersLocks.get(username);
+    userLock.lock();
+    try {
+      boolean unscheduled = scheduler.unschedule(username);
+      ExchangeIntegrationTask task = tasks.remove(username);
+      tasksLoginsSequences.remove(username);
+      if (task != null) {
+        // Release subscriptions and connections of the task, including its
+        // user service
+        task.interrupt();
+      }
+      if (unscheduled || task != null) {
+        UserIntegrationFacade integrationService = task == null ? UserIntegrationFacade.getInstance(username) : null;
+        if (integrationService != null) {
+          try {
+            integrationService.removeInstance();
+          } catch (Throwable e) {
+            // Nothing to do, just log this.
+            LOG.error(e);
+          }
         }
+        LOG.info("Exchange synchronization task stopped for User '" + username + "'.");
       }
-      LOG.info("Exchange synchronization task stopped for User '" + username + "'.");
+    } finally {
+      userLock.unlock();
     }
   }
 
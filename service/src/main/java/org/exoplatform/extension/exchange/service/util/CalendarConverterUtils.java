@@ -10,6 +10,7 @@ import java.util.stream.Collectors;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.tika.mime.MimeTypes;
 
@@ -28,9 +29,12 @@ import org.exoplatform.services.organization.*;
 import microsoft.exchange.webservices.data.core.PropertySet;
 import microsoft.exchange.webservices.data.core.enumeration.property.*;
 import microsoft.exchange.webservices.data.core.enumeration.property.time.*;
+import microsoft.exchange.webservices.data.core.enumeration.service.ServiceResult;
 import microsoft.exchange.webservices.data.core.enumeration.service.calendar.AppointmentType;
 import microsoft.exchange.webservices.data.core.exception.service.local.ServiceLocalException;
 import microsoft.exchange.webservices.data.core.exception.service.local.ServiceObjectPropertyException;
+import microsoft.exchange.webservices.data.core.response.GetItemResponse;
+import microsoft.exchange.webservices.data.core.response.ServiceResponseCollection;
 import microsoft.exchange.webservices.data.core.service.item.Appointment;
 import microsoft.exchange.webservices.data.core.service.schema.AppointmentSchema;
 import microsoft.exchange.webservices.data.property.complex.*;
@@ -38,6 +42,8 @@ import microsoft.exchange.webservices.data.property.complex.recurrence.DayOfTheW
 import microsoft.exchange.webservices.data.property.complex.recurrence.pattern.Recurrence;
 import microsoft.exchange.webservices.data.property.complex.recurrence.pattern.Recurrence.*;
 import microsoft.exchange.webservices.data.property.complex.time.TimeZoneDefinition;
+import microsoft.exchange.webservices.data.property.definition.PropertyDefinition;
+import microsoft.exchange.webservices.data.property.definition.PropertyDefinitionBase;
 
 /**
  * @author Boubaker Khanfir
@@ -65,9 +71,82 @@ public class CalendarConverterUtils {
   // Reuse the object and save memory instead of instantiating this every call
   private static final ThreadLocal<Query> queryThreadLocal              = new ThreadLocal<>();
 
+  private static final PropertyDefinitionBase[] APPOINTMENT_PROPERTIES  = new PropertyDefinitionBase[] {
+      AppointmentSchema.RequiredAttendees, AppointmentSchema.OptionalAttendees, AppointmentSchema.Resources,
+      AppointmentSchema.StartTimeZone, AppointmentSchema.EndTimeZone, AppointmentSchema.Recurrence, AppointmentSchema.Attachments,
+      AppointmentSchema.Body };
+
+  private static final PropertyDefinitionBase[] RECURRING_MASTER_PROPERTIES =
+      (PropertyDefinitionBase[]) ArrayUtils.addAll(APPOINTMENT_PROPERTIES,
+                                                   new PropertyDefinitionBase[] { AppointmentSchema.FirstOccurrence,
+                                                       AppointmentSchema.LastOccurrence, AppointmentSchema.ModifiedOccurrences,
+                                                       AppointmentSchema.DeletedOccurrences });
+
   private CalendarConverterUtils() {
   }
 
+  /**
+   * Gets the set of properties needed to convert an Exchange appointment to an
+   * eXo Calendar Event. It's used to load appointments by batch.
+   * 
+   * @return PropertySet of appointment
+   */
+  public static PropertySet getAppointmentPropertySet() {
+    return newPropertySet(APPOINTMENT_PROPERTIES);
+  }
+
+  /**
+   * Gets the set of properties needed to convert an Exchange recurring master
+   * appointment, including its first, last, modified and deleted occurrences.
+   * 
+   * @return PropertySet of recurring master appointment
+   */
+  public static PropertySet getRecurringMasterPropertySet() {
+    return newPropertySet(RECURRING_MASTER_PROPERTIES);
+  }
+
+  /**
+   * Loads, in a single request, the properties needed for the conversion to
+   * an eXo Calendar Event if at least one of them is missing.
+   * 
+   * @param appointment
+   * @throws Exception
+   */
+  public static void loadAppointmentProperties(Appointment appointment) throws Exception {
+    if (!isPropertiesLoaded(appointment, APPOINTMENT_PROPERTIES)) {
+      appointment.load(getAppointmentPropertySet());
+    }
+  }
+
+  /**
+   * Loads, in a single request, the properties needed for the conversion of a
+   * recurring master appointment if at least one of them is missing.
+   * 
+   * @param appointment
+   * @throws Exception
+   */
+  public static void loadRecurringMasterProperties(Appointment appointment) throws Exception {
+    if (!isPropertiesLoaded(appointment, RECURRING_MASTER_PROPERTIES)) {
+      appointment.load(getRecurringMasterPropertySet());
+    }
+  }
+
+  private static boolean isPropertiesLoaded(Appointment appointment, PropertyDefinitionBase[] propertyDefinitions) throws Exception {
+    for (PropertyDefinitionBase propertyDefinition : propertyDefinitions) {
+      if (!appointment.getPropertyBag().isPropertyLoaded((PropertyDefinition) propertyDefinition)) {
+        return false;
+      }
+    }
+    // The body is loaded in HTML format by default
+    return appointment.getBody() == null || BodyType.Text.equals(appointment.getBody().getBodyType());
+  }
+
+  private static PropertySet newPropertySet(PropertyDefinitionBase[] propertyDefinitions) {
+    PropertySet propertySet = new PropertySet(BasePropertySet.FirstClassProperties, propertyDefinitions);
+    propertySet.setRequestedBodyType(BodyType.Text);
+    return propertySet;
+  }
+
   /**
    * Converts from Exchange Calendar Event to eXo Calendar Event.
    * 
@@ -83,6 +162,7 @@ public class CalendarConverterUtils {
                                                String username,
                                                JCRDataStorage storage,
                                                UserHandler userHandler) throws Exception {
+    loadAppointmentProperties(appointment);
     if (event.getId() == null || event.getId().isEmpty()) {
       event.setId(getEventId(appointment.getId().getUniqueId()));
     }
@@ -110,7 +190,6 @@ public class CalendarConverterUtils {
       event.setPrivate(false);
     }
     setEventAttachements(event, appointment);
-    // This have to be last thing to load because of BAD EWS API impl
     setEventDescription(event, appointment);
   }
 
@@ -132,7 +211,6 @@ public class CalendarConverterUtils {
                                                                       JCRDataStorage storage,
                                                                       UserHandler userHandler) throws Exception {
     convertExchangeToExoEvent(event, appointment, username, storage, userHandler);
-    appointment = Appointment.bind(appointment.getService(), appointment.getId(), new PropertySet(AppointmentSchema.Recurrence));
     Recurrence recurrence = appointment.getRecurrence();
     if (recurrence instanceof DailyPattern) {
       event.setRepeatType(CalendarEvent.RP_DAILY);
@@ -296,17 +374,33 @@ public class CalendarConverterUtils {
                                                                        JCRDataStorage storage,
                                                                        UserHandler userHandler,
                                                                        CorrespondenceService correspondenceService) throws Exception {
-    masterAppointment = Appointment.bind(masterAppointment.getService(),
-                                         masterAppointment.getId(),
-                                         new PropertySet(AppointmentSchema.ModifiedOccurrences));
+    loadRecurringMasterProperties(masterAppointment);
     List<CalendarEvent> calendarEvents = new ArrayList<CalendarEvent>();
     {
       OccurrenceInfoCollection occurrenceInfoCollection = masterAppointment.getModifiedOccurrences();
       if (occurrenceInfoCollection != null && occurrenceInfoCollection.getCount() > 0) {
+        // Load all modified occurrences in a single request
+        List<OccurrenceInfo> occurrenceInfos = new ArrayList<>();
+        List<ItemId> occurrenceItemIds = new ArrayList<>();
         for (OccurrenceInfo occurrenceInfo : occurrenceInfoCollection) {
-          Appointment occurenceAppointment = Appointment.bind(masterAppointment.getService(),
-                                                              occurrenceInfo.getItemId(),
-                                                              new PropertySet(BasePropertySet.FirstClassProperties));
+          occurrenceInfos.add(occurrenceInfo);
+          occurrenceItemIds.add(occurrenceInfo.getItemId());
+        }
+        ServiceResponseCollection<GetItemResponse> occurrenceResponses =
+                                                                       masterAppointment.getService()
+                                                                                        .bindToItems(occurrenceItemIds,
+                                                                                                     getAppointmentPropertySet());
+        for (int i = 0; i < occurrenceInfos.size(); i++) {
+          OccurrenceInfo occurrenceInfo = occurrenceInfos.get(i);
+          GetItemResponse occurrenceResponse = occurrenceResponses.getResponseAtIndex(i);
+          if (!ServiceResult.Success.equals(occurrenceResponse.getResult())) {
+            LOG.warn("Can't load modified occurrence of '{}' with original start date {}: {}",
+                     masterAppointment.getSubject(),
+                     occurrenceInfo.getOriginalStart(),
+                     occurrenceResponse.getErrorMessage());
+            continue;
+          }
+          Appointment occurenceAppointment = (Appointment) occurrenceResponse.getItem();
 
           String exoId = correspondenceService.getCorrespondingId(username, occurenceAppointment.getId().getUniqueId());
           CalendarEvent tmpEvent = null;
@@ -354,12 +448,12 @@ public class CalendarConverterUtils {
         }
       }
     }
-    masterAppointment = Appointment.bind(masterAppointment.getService(),
-                                         masterAppointment.getId(),
-                                         new PropertySet(AppointmentSchema.DeletedOccurrences));
-
     DeletedOccurrenceInfoCollection deletedOccurrenceInfoCollection = masterAppointment.getDeletedOccurrences();
     if (deletedOccurrenceInfoCollection != null && deletedOccurrenceInfoCollection.getCount() > 0) {
+      // Exceptional occurrences to delete only if they don't exist anymore in
+      // Exchange, checked in a single request
+      List<CalendarEvent> exceptionalEventsToCheck = new ArrayList<>();
+      List<ItemId> exceptionalItemIdsToCheck = new ArrayList<>();
       for (DeletedOccurrenceInfo occurrenceInfo : deletedOccurrenceInfoCollection) {
         CalendarEvent toDeleteEvent = getOccurenceOfDate(username, storage, masterEvent, occurrenceInfo.getOriginalStart());
         if (toDeleteEvent == null) {
@@ -367,14 +461,21 @@ public class CalendarConverterUtils {
         }
 
         String appId = correspondenceService.getCorrespondingId(username, toDeleteEvent.getId());
-        Appointment appointment = null;
-        try {
-          appointment = Appointment.bind(masterAppointment.getService(), ItemId.getItemIdFromString(appId));
-        } catch (Exception e) {
-        }
-        if (appointment == null || toDeleteEvent.getIsExceptionOccurrence() == null
-            || !toDeleteEvent.getIsExceptionOccurrence()) {
+        if (appId == null || toDeleteEvent.getIsExceptionOccurrence() == null || !toDeleteEvent.getIsExceptionOccurrence()) {
           calendarEvents.add(toDeleteEvent);
+        } else {
+          exceptionalEventsToCheck.add(toDeleteEvent);
+          exceptionalItemIdsToCheck.add(ItemId.getItemIdFromString(appId));
+        }
+      }
+      if (!exceptionalItemIdsToCheck.isEmpty()) {
+        ServiceResponseCollection<GetItemResponse> responses = masterAppointment.getService()
+                                                                                .bindToItems(exceptionalItemIdsToCheck,
+                                                                                             PropertySet.IdOnly);
+        for (int i = 0; i < exceptionalEventsToCheck.size(); i++) {
+          if (!ServiceResult.Success.equals(responses.getResponseAtIndex(i).getResult())) {
+            calendarEvents.add(exceptionalEventsToCheck.get(i));
+          }
         }
       }
     }
@@ -926,12 +1027,6 @@ public class CalendarConverterUtils {
       queryThreadLocal.set(query);
     }
     List<String> participants = new ArrayList<String>();
-    appointment = Appointment.bind(appointment.getService(),
-                                   appointment.getId(),
-                                   new PropertySet(BasePropertySet.FirstClassProperties,
-                                                   AppointmentSchema.RequiredAttendees,
-                                                   AppointmentSchema.OptionalAttendees,
-                                                   AppointmentSchema.Resources));
     AttendeeCollection requiredAttendees = appointment.getRequiredAttendees();
     AttendeeCollection optiponalAttendees = appointment.getOptionalAttendees();
     AttendeeCollection resources = appointment.getResources();
@@ -1073,11 +1168,6 @@ public class CalendarConverterUtils {
     Calendar cal2 = getCalendarInstance(appointment.getEnd());
 
     if (appointment.getIsAllDayEvent()) {
-      appointment = Appointment.bind(appointment.getService(),
-                                     appointment.getId(),
-                                     new PropertySet(BasePropertySet.FirstClassProperties,
-                                                     AppointmentSchema.StartTimeZone,
-                                                     AppointmentSchema.EndTimeZone));
       String startTimeZoneId = TimeUtil.TIMEZONE_MAPPINGS.get(appointment.getStartTimeZone().id);
       String endTimeZoneId = TimeUtil.TIMEZONE_MAPPINGS.get(appointment.getEndTimeZone().id);
       // Update the value of EXCHANGE_REMOTE_TIME_ZONE
@@ -1174,10 +1264,7 @@ public class CalendarConverterUtils {
 
   private static void setEventAttachements(CalendarEvent calendarEvent, Appointment appointment) throws Exception {
     if (appointment.getHasAttachments()) {
-      Appointment appointmentWithAttachment = Appointment.bind(appointment.getService(),
-                                                               appointment.getId(),
-                                                               new PropertySet(AppointmentSchema.Attachments));
-      AttachmentCollection attachmentCollection = appointmentWithAttachment.getAttachments();
+      AttachmentCollection attachmentCollection = appointment.getAttachments();
       List<org.exoplatform.calendar.service.Attachment> attachments =
                                                                     new ArrayList<org.exoplatform.calendar.service.Attachment>();
       for (microsoft.exchange.webservices.data.property.complex.Attachment attachment : attachmentCollection) {
@@ -1302,10 +1389,7 @@ public class CalendarConverterUtils {
   }
 
   private static void setEventDescription(CalendarEvent event, Appointment appointment) throws Exception, ServiceLocalException {
-    PropertySet bodyPropSet = new PropertySet(AppointmentSchema.Body);
-    bodyPropSet.setRequestedBodyType(BodyType.Text);
-    appointment.load(bodyPropSet);
-    event.setDescription(appointment.getBody().toString());
+    event.setDescription(appointment.getBody() == null ? null : appointment.getBody().toString());
   }
   
   private static TimeZone getUserTimeZone(String username) throws Exception {
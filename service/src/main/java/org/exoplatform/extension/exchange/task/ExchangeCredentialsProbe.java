@@ -0,0 +1,260 @@
+package org.exoplatform.extension.exchange.task;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import org.exoplatform.commons.api.settings.SettingService;
+import org.exoplatform.commons.api.settings.SettingValue;
+import org.exoplatform.commons.utils.CommonsUtils;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.exception.http.HttpErrorException;
+import microsoft.exchange.webservices.data.credential.WebCredentials;
+
+/**
+ * Authenticates a user service against Exchange by trying the different
+ * shapes of credentials that can be deduced from the user settings. The shape
+ * that succeeded is remembered per user, to be tried first next time, and is
+ * refreshed only when it fails. Credentials that failed for all the shapes are
+ * rejected without contacting Exchange until a backoff delay, which grows with
+ * the successive failures, is elapsed or the credentials are changed. Only
+ * authentication errors are considered as failures of the credentials, other
+ * errors, like an unreachable server, are thrown as is.
+ *
+ * @author Boubaker KHANFIR
+ */
+public class ExchangeCredentialsProbe {
+
+  private static final Log                   LOG                         = ExoLogger.getLogger(ExchangeCredentialsProbe.class);
+
+  private static final String                CREDENTIALS_SHAPE_KEY       = "exchange.credentials.shape";
+
+  private static final long                  MIN_BACKOFF_DELAY           = TimeUnit.MINUTES.toMillis(1);
+
+  private static final long                  MAX_BACKOFF_DELAY           = TimeUnit.HOURS.toMillis(1);
+
+  private static final int                   HTTP_UNAUTHORIZED           = 401;
+
+  // Failures of credentials, by hash of user settings, kept until the maximum
+  // backoff delay is elapsed
+  private static final Cache<String, Failure> failures                   =
+                                                     CacheBuilder.newBuilder()
+                                                                 .expireAfterWrite(MAX_BACKOFF_DELAY, TimeUnit.MILLISECONDS)
+                                                                 .build();
+
+  private ExchangeCredentialsProbe() {
+  }
+
+  /**
+   * Sets on the service the first credentials shape accepted by Exchange.
+   *
+   * @param service user service
+   * @param username eXo username
+   * @param exchangeUsername
+   * @param exchangePassword password, it's only copied in the credentials set
+   *          on the service
+   * @param exchangeDomain
+   * @param exchangeServerURL
+   * @throws Exception if no credentials shape is accepted by Exchange, if
+   *           the same credentials failed recently, or if Exchange can't be
+   *           reached
+   */
+  public static void authenticate(ExchangeService service,
+                                  String username,
+                                  String exchangeUsername,
+                                  char[] exchangePassword,
+                                  String exchangeDomain,
+                                  String exchangeServerURL) throws Exception {
+    String failureKey = getFailureKey(username, exchangeUsername, exchangePassword, exchangeDomain, exchangeServerURL);
+    Failure failure = failures.getIfPresent(failureKey);
+    if (failure != null && failure.nextAttemptTime > System.currentTimeMillis()) {
+      throw new IllegalStateException("Authentication of user '" + username + "' to exchange failed " + failure.count
+          + " times, next attempt will be made after " + new Date(failure.nextAttemptTime)
+          + ". Please make sure you are connected to the correct URL with correct credentials.");
+    }
+
+    service.setUrl(new URI(exchangeServerURL));
+
+    CredentialsShape rememberedShape = getRememberedShape(username);
+    List<CredentialsShape> shapes = getCandidateShapes(exchangeUsername, exchangeDomain);
+    if (rememberedShape != null && shapes.remove(rememberedShape)) {
+      shapes.add(0, rememberedShape);
+    }
+
+    Exception authenticationException = null;
+    for (CredentialsShape shape : shapes) {
+      service.setCredentials(shape.getCredentials(exchangeUsername, exchangePassword, exchangeDomain));
+      try {
+        service.getInboxRules();
+      } catch (Exception e) {
+        if (!isAuthenticationError(e)) {
+          // Not related to the credentials, don't try the other shapes
+          throw e;
+        }
+        if (authenticationException == null) {
+          authenticationException = e;
+        }
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Authentication of user '{}' to exchange with credentials shape {} failed", username, shape, e);
+        }
+        continue;
+      }
+      failures.invalidate(failureKey);
+      if (shape != rememberedShape) {
+        setRememberedShape(username, shape);
+      }
+      return;
+    }
+
+    int failuresCount = failure == null ? 1 : failure.count + 1;
+    long backoffDelay = Math.min(MIN_BACKOFF_DELAY << Math.min(failuresCount - 1, 16), MAX_BACKOFF_DELAY);
+    failures.put(failureKey, new Failure(failuresCount, System.currentTimeMillis() + backoffDelay));
+    throw authenticationException;
+  }
+
+  private static boolean isAuthenticationError(Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+      if (cause instanceof HttpErrorException && ((HttpErrorException) cause).getHttpErrorCode() == HTTP_UNAUTHORIZED) {
+        return true;
+      }
+      // Some errors of the Exchange client only report the HTTP status in
+      // their message
+      if (StringUtils.contains(cause.getMessage(), "(" + HTTP_UNAUTHORIZED + ")")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static List<CredentialsShape> getCandidateShapes(String exchangeUsername, String exchangeDomain) {
+    List<CredentialsShape> shapes = new ArrayList<>();
+    if (StringUtils.isNotBlank(exchangeDomain)) {
+      shapes.add(CredentialsShape.USERNAME_DOMAIN);
+      shapes.add(CredentialsShape.USERNAME);
+      if (!exchangeUsername.contains("@")) {
+        shapes.add(CredentialsShape.USERNAME_AT_DOMAIN);
+      }
+    } else {
+      shapes.add(CredentialsShape.USERNAME);
+      if (exchangeUsername.contains("@")) {
+        shapes.add(CredentialsShape.DOMAIN_FROM_USERNAME);
+      }
+    }
+    return shapes;
+  }
+
+  private static CredentialsShape getRememberedShape(String username) {
+    try {
+      SettingValue<?> settingValue = getSettingService().get(UserIntegrationFacade.USER_EXCHANGE_CONTEXT,
+                                                             UserIntegrationFacade.USER_EXCHANGE_SCOPE.id(username),
+                                                             CREDENTIALS_SHAPE_KEY);
+      return settingValue == null || settingValue.getValue() == null ? null
+                                                                     : CredentialsShape.valueOf(settingValue.getValue()
+                                                                                                            .toString());
+    } catch (Exception e) {
+      LOG.debug("Can't read exchange credentials shape of user '{}'", username, e);
+      return null;
+    }
+  }
+
+  private static void setRememberedShape(String username, CredentialsShape shape) {
+    try {
+      getSettingService().set(UserIntegrationFacade.USER_EXCHANGE_CONTEXT,
+                              UserIntegrationFacade.USER_EXCHANGE_SCOPE.id(username),
+                              CREDENTIALS_SHAPE_KEY,
+                              SettingValue.create(shape.name()));
+    } catch (Exception e) {
+      LOG.warn("Can't save exchange credentials shape of user '{}'", username, e);
+    }
+  }
+
+  /**
+   * The password isn't kept in memory, only a digest of the settings is used
+   * as key, so that a change of any of them allows a new attempt immediately.
+   */
+  private static String getFailureKey(String username,
+                                      String exchangeUsername,
+                                      char[] exchangePassword,
+                                      String exchangeDomain,
+                                      String exchangeServerURL) throws Exception {
+    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    for (String value : new String[] { username, exchangeUsername }) {
+      digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+    }
+    ByteBuffer passwordBytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(exchangePassword));
+    digest.update(passwordBytes.duplicate());
+    // Wipe the encoded copy of the password
+    while (passwordBytes.hasRemaining()) {
+      passwordBytes.put((byte) 0);
+    }
+    digest.update((byte) 0);
+    for (String value : new String[] { exchangeDomain, exchangeServerURL }) {
+      digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+    }
+    return Base64.getEncoder().encodeToString(digest.digest());
+  }
+
+  private static SettingService getSettingService() {
+    return CommonsUtils.getService(SettingService.class);
+  }
+
+  private enum CredentialsShape {
+    // "exchangeUsername, exchangePassword, exchangeDomain"
+    USERNAME_DOMAIN {
+      @Override
+      WebCredentials getCredentials(String exchangeUsername, char[] exchangePassword, String exchangeDomain) {
+        return new WebCredentials(exchangeUsername, new String(exchangePassword), exchangeDomain);
+      }
+    },
+    // "exchangeUsername, exchangePassword"
+    USERNAME {
+      @Override
+      WebCredentials getCredentials(String exchangeUsername, char[] exchangePassword, String exchangeDomain) {
+        return new WebCredentials(exchangeUsername, new String(exchangePassword));
+      }
+    },
+    // "exchangeUsername@domainName, exchangePassword"
+    USERNAME_AT_DOMAIN {
+      @Override
+      WebCredentials getCredentials(String exchangeUsername, char[] exchangePassword, String exchangeDomain) {
+        return new WebCredentials(exchangeUsername + "@" + exchangeDomain, new String(exchangePassword));
+      }
+    },
+    // "exchangeUsername, exchangePassword" and domainName extracted from
+    // username
+    DOMAIN_FROM_USERNAME {
+      @Override
+      WebCredentials getCredentials(String exchangeUsername, char[] exchangePassword, String exchangeDomain) {
+        String[] parts = exchangeUsername.split("@");
+        return new WebCredentials(parts[0], new String(exchangePassword), parts[1]);
+      }
+    };
+
+    abstract WebCredentials getCredentials(String exchangeUsername, char[] exchangePassword, String exchangeDomain);
+  }
+
+  private static final class Failure {
+    private final int  count;
+
+    private final long nextAttemptTime;
+
+    private Failure(int count, long nextAttemptTime) {
+      this.count = count;
+      this.nextAttemptTime = nextAttemptTime;
+    }
+  }
+}
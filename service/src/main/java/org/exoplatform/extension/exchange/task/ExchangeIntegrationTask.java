@@ -2,6 +2,8 @@ package org.exoplatform.extension.exchange.task;
 
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.exoplatform.calendar.service.Calendar;
 import org.exoplatform.calendar.service.CalendarEvent;
@@ -17,24 +19,77 @@ import microsoft.exchange.webservices.data.core.enumeration.misc.ExchangeVersion
 import microsoft.exchange.webservices.data.core.enumeration.notification.EventType;
 import microsoft.exchange.webservices.data.core.enumeration.property.WellKnownFolderName;
 import microsoft.exchange.webservices.data.core.service.folder.Folder;
-import microsoft.exchange.webservices.data.credential.ExchangeCredentials;
-import microsoft.exchange.webservices.data.credential.WebCredentials;
 import microsoft.exchange.webservices.data.notification.*;
 import microsoft.exchange.webservices.data.property.complex.FolderId;
+import microsoft.exchange.webservices.data.property.complex.ItemId;
 
 /**
- * Thread used to synchronize Exchange Calendar with eXo Calendar
+ * Thread used to synchronize Exchange Calendar with eXo Calendar. Exchange
+ * changes are retrieved either by polling a PullSubscription on each
+ * execution, or through a StreamingSubscription that buffers the events as they
+ * arrive and triggers an immediate execution of the task.
  */
 @SuppressWarnings("deprecation")
 public class ExchangeIntegrationTask extends Thread {
   private static final Log      LOG               = ExoLogger.getLogger(ExchangeIntegrationTask.class);
 
+  /**
+   * Lifetime of streaming connection in minutes, maximum allowed by Exchange
+   */
+  private static final int      STREAMING_CONNECTION_LIFETIME = 30;
+
+  /**
+   * Period of the search of eXo events modified since the last search. The
+   * user outbox doesn't receive the changes made on another cluster node, or
+   * by another user in a shared calendar, they are caught by this search.
+   */
+  private static final long     EXO_CHANGES_RECONCILIATION_PERIOD = TimeUnit.MINUTES.toMillis(15);
+
+  /**
+   * Margin in minutes added to the maximum delay between two executions for
+   * the timeout of the pull subscription, covering the lag of the scheduler
+   */
+  private static final int      PULL_SUBSCRIPTION_TIMEOUT_MARGIN = 5;
+
+  /**
+   * Maximum timeout in minutes of a pull subscription allowed by Exchange
+   */
+  private static final int      PULL_SUBSCRIPTION_MAX_TIMEOUT = 1440;
+
+  /**
+   * Overlap of successive searches of modified eXo events, covering the clock
+   * difference between cluster nodes
+   */
+  private static final long     EXO_CHANGES_RECONCILIATION_MARGIN = TimeUnit.MINUTES.toMillis(1);
+
   private ExchangeService       service;
 
   private PullSubscription      subscription      = null;
 
+  private boolean               streamingNotifications;
+
+  private StreamingSubscription streamingSubscription;
+
+  private StreamingSubscriptionConnection streamingConnection;
+
+  // Reset by the streaming subscription error callback, never modified in
+  // place
+  private volatile List<FolderId> streamingFolderIds = Collections.emptyList();
+
+  private final Queue<NotificationEvent> streamedEvents = new ConcurrentLinkedQueue<>();
+
+  /**
+   * True when events may have been missed by the streaming subscription, thus
+   * a synchronization by state is needed
+   */
+  private volatile boolean      streamingInterrupted = true;
+
+  private volatile boolean      closed;
+
   private UserIntegrationFacade integrationService;
 
+  private SynchronizationScheduler scheduler;
+
   private List<FolderId>        calendarFolderIds = new ArrayList<>();
 
   private String                username;
@@ -51,153 +106,138 @@ public class ExchangeIntegrationTask extends Thread {
 
   private boolean               deleteExoCalendarOnUnsync;
 
-  public ExchangeIntegrationTask(CalendarService calendarService,
+  /**
+   * Date of the last search of modified eXo events, null until eXo events
+   * modified while the user wasn't logged in are pushed to Exchange. Between
+   * two searches, eXo changes are read from the user outbox, fed by JCR
+   * actions, instead of searching modified events in all calendars
+   */
+  private Date                  exoChangesReconciliationDate;
+
+  /**
+   * Date of the last synchronization before the user logged in, eXo events
+   * modified since this date are searched until a search succeeds
+   */
+  private Date                  exoLastSyncDateBeforeLogin;
+
+  public ExchangeIntegrationTask(SynchronizationScheduler scheduler,
+                                 CalendarService calendarService,
                                  ExoDataStorageService exoStorageService,
                                  ExchangeDataStorageService exchangeStorageService,
                                  CorrespondenceService correspondenceService,
                                  Identity identity,
                                  String exchangeUsername,
-                                 String exchangePassword,
+                                 char[] exchangePassword,
                                  String exchangeDomain,
                                  String exchangeServerURL,
                                  boolean synchronizeAllExchangeFolders,
                                  boolean deleteExoCalendarOnUnsync,
-                                 int maxFirstSynchronizationDays)
+                                 int maxFirstSynchronizationDays,
+                                 int itemsBatchSize,
+                                 int firstSynchronizationThreads,
+                                 int serverMaxConcurrentRequests,
+                                 int serverMaxConnections,
+                                 boolean streamingNotifications)
       throws Exception {
     this.username = identity.getUserId();
+    this.scheduler = scheduler;
+    this.streamingNotifications = streamingNotifications;
     this.firstSynchronization = true;
     this.synchronizeAllExchangeFolders = synchronizeAllExchangeFolders;
     this.deleteExoCalendarOnUnsync = deleteExoCalendarOnUnsync;
 
-    service = new ExchangeService(ExchangeVersion.Exchange2010_SP2);
+    // Connections to the Exchange server are shared with other users services
+    service = new PooledExchangeService(ExchangeVersion.Exchange2010_SP2, new URI(exchangeServerURL), serverMaxConnections);
     service.setTimeout(300000);
 
-    ExchangeCredentials credentials = null;
-    // Try with domain name if it's not empty
-    if (exchangeDomain != null) {
-      // Test authentication with
-      // "exchangeUsername, exchangePassword, exchangeDomain"
-      credentials = new WebCredentials(exchangeUsername, exchangePassword, exchangeDomain);
-    } else {
-      // Test authentication with "exchangeUsername, exchangePassword"
-      credentials = new WebCredentials(exchangeUsername, exchangePassword);
-    }
-    service.setCredentials(credentials);
-    service.setUrl(new URI(exchangeServerURL));
-
     try {
-      service.getInboxRules();
-    } catch (Exception e) {
+      // Try the credentials shape which succeeded last time first
+      ExchangeCredentialsProbe.authenticate(service,
+                                            username,
+                                            exchangeUsername,
+                                            exchangePassword,
+                                            exchangeDomain,
+                                            exchangeServerURL);
+
+      integrationService = new UserIntegrationFacade(calendarService,
+                                                     exoStorageService,
+                                                     exchangeStorageService,
+                                                     correspondenceService,
+                                                     service,
+                                                     username,
+                                                     maxFirstSynchronizationDays,
+                                                     itemsBatchSize,
+                                                     firstSynchronizationThreads,
+                                                     serverMaxConcurrentRequests);
+      integrationService.getOutboxStorageService().createOutbox(username);
+
+      // Set current identity visible in this Thread
+      state = new ConversationState(identity);
+      ConversationState.setCurrent(state);
 
-      boolean authenticated = false;
-      if (exchangeDomain != null) {
-        // Test authentication with "exchangeUsername, exchangePassword" if
-        // domainName not null
-        credentials = new WebCredentials(exchangeUsername, exchangePassword);
-        try {
-          service.setCredentials(credentials);
-          service.setUrl(new URI(exchangeServerURL));
-
-          service.getInboxRules();
-          authenticated = true;
-        } catch (Exception exp) {
-          if (!exchangeUsername.contains("@")) {
-            // Test authentication with
-            // "exchangeUsername@domainName, exchangePassword" if domainName
-            // not null
-            credentials = new WebCredentials(exchangeUsername + "@" + exchangeDomain, exchangePassword);
-            try {
-              service.setCredentials(credentials);
-              service.setUrl(new URI(exchangeServerURL));
-
-              service.getInboxRules();
-              authenticated = true;
-            } catch (Exception exp2) {
-              authenticated = false;
-            }
-          }
-        }
-      }
-      if (!authenticated && (exchangeDomain == null || exchangeDomain.isEmpty()) && exchangeUsername.contains("@")) {
-        String[] parts = exchangeUsername.split("@");
-        exchangeUsername = parts[0];
-        exchangeDomain = parts[1];
-        // Test authentication with
-        // "exchangeUsername, exchangePassword" and domainName extracted
-        // from
-        // username
-        credentials = new WebCredentials(exchangeUsername, exchangePassword, exchangeDomain);
-        service.setCredentials(credentials);
-        service.setUrl(new URI(exchangeServerURL));
-
-        service.getInboxRules();
+      // First call to the service, this may fail because of wrong
+      // credentials
+      if (synchronizeAllExchangeFolders) {
+        calendarFolderIds = exchangeStorageService.getAllExchangeCalendars(service);
       } else {
-        throw e;
-      }
-    }
-
-    integrationService = new UserIntegrationFacade(calendarService,
-                                                   exoStorageService,
-                                                   exchangeStorageService,
-                                                   correspondenceService,
-                                                   service,
-                                                   username,
-                                                   maxFirstSynchronizationDays);
-
-    // Set current identity visible in this Thread
-    state = new ConversationState(identity);
-    ConversationState.setCurrent(state);
-
-    // First call to the service, this may fail because of wrong
-    // credentials
-    if (synchronizeAllExchangeFolders) {
-      calendarFolderIds = exchangeStorageService.getAllExchangeCalendars(service);
-    } else {
-      // Test connection
-      Folder folder =
-                    integrationService.getExchangeCalendar(FolderId.getFolderIdFromWellKnownFolderName(WellKnownFolderName.Calendar));
-      if (folder != null) {
-        if (!waitOtherTasks()) {
-          return;
-        }
-        try {
+        // Test connection
+        Folder folder =
+                      integrationService.getExchangeCalendar(FolderId.getFolderIdFromWellKnownFolderName(WellKnownFolderName.Calendar));
+        if (folder != null) {
           calendarFolderIds = integrationService.getSynchronizedExchangeCalendars();
-        } finally {
-          integrationService.setSynchronizationStopped();
+        } else {
+          throw new IllegalStateException("Error while authenticating user '" + username
+              + "' to exchange, please make sure you are connected to the correct URL with correct credentials.");
         }
-      } else {
-        throw new IllegalStateException("Error while authenticating user '" + username
-            + "' to exchange, please make sure you are connected to the correct URL with correct credentials.");
       }
+    } catch (Exception e) {
+      // Don't keep the resources of a task that won't be started
+      if (integrationService != null) {
+        integrationService.removeInstance();
+      }
+      service.close();
+      throw e;
     }
   }
 
+  /**
+   * @return the service of the user used by this task
+   */
+  public UserIntegrationFacade getIntegrationService() {
+    return integrationService;
+  }
+
   @Override
   public void run() {
-    try {
-      if (!waitOtherTasks()) {
-        return;
+    if (!integrationService.setSynchronizationStarted()) {
+      // eXo changes are being pushed to Exchange, retry soon instead of
+      // blocking the worker
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("Exchange integration is in use, scheduled job will be retried soon for user:'{}'.", username);
       }
-    } catch (Exception e) {
-      LOG.error("Error waiting to start user synchronization", e);
+      scheduler.notifyActivity(username);
       return;
     }
+    boolean synchronizationStarted = true;
     boolean firstSynchronizationIteration = false;
     try {
       ConversationState.setCurrent(state);
 
       long newLastTimeCheck = System.currentTimeMillis();
 
+      // Push eXo changes recorded by JCR actions before synchronizing
+      // Exchange changes
+      pushOutboxChanges();
+
       // Verify Exchange folders state with Exo Calendars state
-      List<String> updatedExoEventIDs = integrationService.synchronizeExchangeFolderState(calendarFolderIds,
-                                                                                          synchronizeAllExchangeFolders,
-                                                                                          deleteExoCalendarOnUnsync);
+      // IDs of eXo events touched in this cycle, they are excluded from the
+      // eXo changes to push back to Exchange
+      Set<String> updatedExoEventIDs = integrationService.synchronizeExchangeFolderState(calendarFolderIds,
+                                                                                         synchronizeAllExchangeFolders,
+                                                                                         deleteExoCalendarOnUnsync);
       if (calendarFolderIds.isEmpty()) {
         return;
       }
-      if (updatedExoEventIDs == null) {
-        updatedExoEventIDs = new ArrayList<>();
-      }
       Date exoLastSyncDate = integrationService.getUserExoLastCheckDate();
 
       // This is used once, when user login
@@ -205,10 +245,12 @@ public class ExchangeIntegrationTask extends Thread {
         this.firstSynchronization = false;
         this.firstSynchronizationRunning = firstSynchronizationIteration = true;
         this.firstSynchronizationStartDate = java.util.Calendar.getInstance().getTime();
+        this.exoLastSyncDateBeforeLogin = exoLastSyncDate;
 
         // Allow parallel synchronization while the first synchrnonization is
         // running
         integrationService.setSynchronizationStopped();
+        synchronizationStarted = false;
       } else if (exoLastSyncDate == null && this.firstSynchronizationRunning) {
         exoLastSyncDate = this.firstSynchronizationStartDate;
       }
@@ -217,17 +259,53 @@ public class ExchangeIntegrationTask extends Thread {
         LOG.trace("run scheduled synchronization for user: " + username);
       }
 
+      // With streaming notifications, the synchronization by state is needed
+      // only when events were received or could have been missed
+      boolean synchronizeExchangeState = !streamingNotifications || streamingInterrupted;
+
       // This is used in a scheduled task when the user session still alive
-      GetEventsResults events = getEvents();
+      List<NotificationEvent> events = getEvents();
+      if (!events.isEmpty()) {
+        // Changes are happening on Exchange, check again soon
+        scheduler.notifyActivity(username);
+        synchronizeExchangeState = true;
+      }
+      List<ItemEvent> itemEvents = new ArrayList<>();
+      List<FolderEvent> folderEvents = new ArrayList<>();
+      for (NotificationEvent event : events) {
+        if (event instanceof ItemEvent) {
+          itemEvents.add((ItemEvent) event);
+        } else if (event instanceof FolderEvent) {
+          folderEvents.add((FolderEvent) event);
+        }
+      }
       if (synchronizeAllExchangeFolders) {
-        synchronizeExchangeFolders(events, updatedExoEventIDs);
+        synchronizeExchangeFolders(folderEvents, updatedExoEventIDs);
+      }
+
+      synchronizeExchangeApointments(itemEvents, updatedExoEventIDs);
+      Date exoChangesSinceDate = getExoChangesSinceDate(newLastTimeCheck);
+      boolean exoChangesSearched = synchronizeByModificationDate(firstSynchronizationIteration ? null : exoLastSyncDate,
+                                    exoChangesSinceDate,
+                                    updatedExoEventIDs,
+                                    synchronizeExchangeState);
+      if (closed) {
+        // The user logged out during the synchronization, keep the last check
+        // date to resume it on next login
+        return;
       }
 
-      synchronizeExchangeApointments(events, updatedExoEventIDs);
-      synchronizeByModificationDate(firstSynchronizationIteration ? null : exoLastSyncDate, updatedExoEventIDs);
+      // Push eXo changes saved while synchronizing, typically the ones which
+      // triggered this synchronization before their JCR session was saved
+      pushOutboxChanges();
 
       // Update date of last check in a user profile attribute
       integrationService.setUserExoLastCheckDate(newLastTimeCheck);
+      if (exoChangesSearched || exoChangesSinceDate == null && exoChangesReconciliationDate == null) {
+        // Without previous synchronization, there are no eXo changes made
+        // before the login to search
+        exoChangesReconciliationDate = new Date(newLastTimeCheck);
+      }
 
       if (LOG.isTraceEnabled()) {
         LOG.trace("Synchronization completed.");
@@ -242,12 +320,16 @@ public class ExchangeIntegrationTask extends Thread {
       if (firstSynchronizationIteration) {
         this.firstSynchronizationRunning = false;
       }
-      integrationService.setSynchronizationStopped();
+      if (synchronizationStarted) {
+        integrationService.setSynchronizationStopped();
+      }
     }
   }
 
   @Override
   public void interrupt() {
+    closed = true;
+    closeStreamingConnection();
     if (subscription != null) {
       try {
         if (LOG.isTraceEnabled()) {
@@ -275,91 +357,186 @@ public class ExchangeIntegrationTask extends Thread {
     super.interrupt();
   }
 
-  private GetEventsResults getEvents() throws Exception {
-    GetEventsResults events = null;
+  private List<NotificationEvent> getEvents() throws Exception {
+    List<NotificationEvent> events = new ArrayList<>();
+    if (streamingNotifications) {
+      openStreamingConnection();
+
+      NotificationEvent event = streamedEvents.poll();
+      while (event != null) {
+        events.add(event);
+        event = streamedEvents.poll();
+      }
+      return events;
+    }
+
     if (subscription == null) {
       newSubscription();
     }
 
+    GetEventsResults results = null;
     try {
-      events = subscription.getEvents();
+      results = subscription.getEvents();
     } catch (Exception e) {
       LOG.warn("Subscription seems timed out, retry. Original cause: " + e.getMessage() + "");
       newSubscription();
-      events = subscription.getEvents();
+      results = subscription.getEvents();
+    }
+    for (NotificationEvent event : results.getAllEvents()) {
+      events.add(event);
     }
-
     return events;
   }
 
-  private boolean waitOtherTasks() throws Exception { // NOSONAR
-    int i = 0;
-    int maxWaitIterations = 5;
-    boolean synchronizationStarted = integrationService.setSynchronizationStarted();
-    try {
-      while (!synchronizationStarted && i < maxWaitIterations) {
-        if (LOG.isTraceEnabled()) {
-          LOG.trace("Exchange integration is in use, scheduled job will wait until synchronization is finished for user:'"
-              + username + "'.");
-        }
+  private void openStreamingConnection() throws Exception {
+    if (streamingConnection != null && streamingConnection.getIsOpen() && streamingFolderIds.equals(calendarFolderIds)) {
+      streamingInterrupted = false;
+      return;
+    }
+    closeStreamingConnection();
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("New streaming subscription for user: " + username);
+    }
+    streamingFolderIds = new ArrayList<>(calendarFolderIds);
+    streamingSubscription = integrationService.getService()
+                                              .subscribeToStreamingNotifications(streamingFolderIds,
+                                                                                 EventType.Modified,
+                                                                                 EventType.Created,
+                                                                                 EventType.Deleted);
+    streamingConnection = new StreamingSubscriptionConnection(integrationService.getService(), STREAMING_CONNECTION_LIFETIME);
+    streamingConnection.addSubscription(streamingSubscription);
+    streamingConnection.addOnNotificationEvent((sender, args) -> {
+      for (NotificationEvent event : args.getEvents()) {
+        streamedEvents.add(event);
+      }
+      scheduler.notifyActivity(username);
+      scheduler.trigger(username);
+    });
+    streamingConnection.addOnDisconnect((sender, args) -> {
+      if (closed) {
+        return;
+      }
+      // The connection is closed by Exchange when its lifetime ends, reopen it
+      streamingInterrupted = true;
+      try {
+        ((StreamingSubscriptionConnection) sender).open();
+      } catch (Exception e) {
+        LOG.debug("Can't reopen streaming connection of user '{}', it will be renewed next iteration", username, e);
+      }
+    });
+    streamingConnection.addOnSubscriptionError((sender, args) -> {
+      LOG.warn("Streaming subscription error for user '{}', it will be renewed next iteration", username, args.getException());
+      streamingInterrupted = true;
+      streamingFolderIds = Collections.emptyList();
+    });
+    streamingConnection.open();
+    // Changes made before the subscription will be retrieved by state in this
+    // iteration
+    streamingInterrupted = false;
+  }
 
-        Thread.sleep(3000);
-        synchronizationStarted = integrationService.setSynchronizationStarted();
-        i++;
+  private void closeStreamingConnection() {
+    streamingInterrupted = true;
+    if (streamingConnection != null) {
+      try {
+        streamingConnection.clearDisconnect();
+        streamingConnection.close();
+      } catch (Exception e) {
+        LOG.debug("Error while closing streaming connection of user '{}'", username, e);
       }
-    } catch (Exception e) {
-      if (synchronizationStarted) { // NOSONAR
-        integrationService.setSynchronizationStopped();
+      streamingConnection = null;
+    }
+    if (streamingSubscription != null) {
+      try {
+        streamingSubscription.unsubscribe();
+      } catch (Exception e) {
+        // Nothing to do, subscription may be timed out
+        LOG.debug("Error while unsubscribing streaming subscription of user '{}'", username, e);
       }
-      throw e;
+      streamingSubscription = null;
     }
-    return synchronizationStarted;
   }
 
-  private void synchronizeByModificationDate(Date exoLastSyncDate, List<String> updatedExoEventIDs) throws Exception {
+  private void pushOutboxChanges() throws Exception {
+    int pushedChanges = integrationService.pushOutboxChanges();
+    if (pushedChanges > 0 && LOG.isDebugEnabled()) {
+      LOG.debug("{} eXo changes pushed to Exchange for user '{}'", pushedChanges, username);
+    }
+  }
+
+  /**
+   * @param now start time of the synchronization
+   * @return date since which modified eXo events are searched, null if the
+   *         search isn't due
+   */
+  private Date getExoChangesSinceDate(long now) {
+    if (exoChangesReconciliationDate == null) {
+      return exoLastSyncDateBeforeLogin;
+    } else if (now - exoChangesReconciliationDate.getTime() < EXO_CHANGES_RECONCILIATION_PERIOD) {
+      return null;
+    }
+    return new Date(exoChangesReconciliationDate.getTime() - EXO_CHANGES_RECONCILIATION_MARGIN);
+  }
+
+  /**
+   * @return true if modified eXo events were searched in the calendars
+   */
+  private boolean synchronizeByModificationDate(Date exoLastSyncDate,
+                                                Date exoChangesSinceDate,
+                                                Set<String> updatedExoEventIDs,
+                                                boolean synchronizeExchangeState) throws Exception {
     // synchronize eXo Calendar with Exchange
+    boolean exoChangesSearched = false;
+    List<FolderId> fullSynchronizationFolderIds = new ArrayList<>();
     for (FolderId folderId : calendarFolderIds) {
       Calendar calendar = integrationService.getUserCalendarByExchangeFolderId(folderId);
       if (calendar == null || exoLastSyncDate == null) {
-        integrationService.synchronizeFullCalendar(folderId);
+        fullSynchronizationFolderIds.add(folderId);
       } else {
-        integrationService.synchronizeModificationsOfCalendar(folderId, exoLastSyncDate, updatedExoEventIDs);
+        integrationService.synchronizeModificationsOfCalendar(folderId,
+                                                              exoChangesSinceDate,
+                                                              updatedExoEventIDs,
+                                                              synchronizeExchangeState,
+                                                              exoChangesSinceDate != null);
+        exoChangesSearched |= exoChangesSinceDate != null;
       }
     }
+    if (!fullSynchronizationFolderIds.isEmpty()) {
+      // Folders are synchronized concurrently
+      updatedExoEventIDs.addAll(integrationService.synchronizeFullCalendars(fullSynchronizationFolderIds));
+    }
+    return exoChangesSearched;
   }
 
   @SuppressWarnings("all")
-  private long synchronizeExchangeApointments(GetEventsResults events, List<String> updatedExoEventIDs) throws Exception {
+  private long synchronizeExchangeApointments(List<ItemEvent> itemEvents, Set<String> updatedExoEventIDs) throws Exception {
     // loop through Appointment events
-    Iterable<ItemEvent> itemEvents = events.getItemEvents();
     long lastTimeCheck = System.currentTimeMillis();
-    if (itemEvents.iterator().hasNext()) {
-      List<String> itemIds = new ArrayList<>();
+    if (!itemEvents.isEmpty()) {
+      // Retrieve each modified item only once
+      Map<String, ItemId> itemIds = new LinkedHashMap<>();
       for (ItemEvent itemEvent : itemEvents) {
-        if (itemIds.contains(itemEvent.getItemId().getUniqueId())) {
-          continue;
-        }
-        itemIds.add(itemEvent.getItemId().getUniqueId());
-        List<CalendarEvent> updatedEvents = integrationService.createOrUpdateOrDelete(itemEvent);
-        if (updatedEvents != null && !updatedEvents.isEmpty() && updatedExoEventIDs != null) {
-          for (CalendarEvent calendarEvent : updatedEvents) {
-            updatedExoEventIDs.add(calendarEvent.getId());
-          }
+        itemIds.putIfAbsent(itemEvent.getItemId().getUniqueId(), itemEvent.getItemId());
+      }
+      List<CalendarEvent> updatedEvents = integrationService.createOrUpdateOrDelete(new ArrayList<>(itemIds.values()));
+      if (updatedExoEventIDs != null) {
+        for (CalendarEvent calendarEvent : updatedEvents) {
+          updatedExoEventIDs.add(calendarEvent.getId());
         }
       }
     }
     return lastTimeCheck;
   }
 
-  private void synchronizeExchangeFolders(GetEventsResults events, List<String> updatedExoEventIDs) throws Exception {
+  private void synchronizeExchangeFolders(List<FolderEvent> folderEvents, Set<String> updatedExoEventIDs) throws Exception {
     // If Calendar Folders was modified
-    if (events.getFolderEvents() != null && events.getFolderEvents().iterator().hasNext()) {
-      Iterator<FolderEvent> iterator = events.getFolderEvents().iterator();
+    if (!folderEvents.isEmpty()) {
+      Iterator<FolderEvent> iterator = folderEvents.iterator();
       while (iterator.hasNext()) {
         FolderEvent folderEvent = iterator.next();
         if (folderEvent.getEventType().equals(EventType.Created) || folderEvent.getEventType().equals(EventType.Modified)) {
           if (!integrationService.isCalendarPresentInExo(folderEvent.getFolderId())) {
-            List<String> updatedEventIDs = integrationService.synchronizeFullCalendar(folderEvent.getFolderId());
+            Set<String> updatedEventIDs = integrationService.synchronizeFullCalendar(folderEvent.getFolderId());
             updatedExoEventIDs.addAll(updatedEventIDs);
             if (!updatedEventIDs.isEmpty() && !calendarFolderIds.contains(folderEvent.getFolderId())) {
               calendarFolderIds.add(folderEvent.getFolderId());
@@ -398,9 +575,13 @@ public class ExchangeIntegrationTask extends Thread {
         }
       }
     }
+    // The subscription mustn't expire between two executions, even when the
+    // execution of an idle user is delayed the most
+    int timeoutInMinutes = (int) Math.min(TimeUnit.MILLISECONDS.toMinutes(scheduler.getMaxDelayInMillis())
+        + PULL_SUBSCRIPTION_TIMEOUT_MARGIN, PULL_SUBSCRIPTION_MAX_TIMEOUT);
     subscription = integrationService.getService()
                                      .subscribeToPullNotifications(calendarFolderIds,
-                                                                   5,
+                                                                   timeoutInMinutes,
                                                                    waterMark,
                                                                    EventType.Modified,
                                                                    EventType.Created,
@@ -0,0 +1,300 @@
+package org.exoplatform.extension.exchange.task;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.PropertySet;
+import microsoft.exchange.webservices.data.core.enumeration.property.BasePropertySet;
+import microsoft.exchange.webservices.data.core.enumeration.service.calendar.AppointmentType;
+import microsoft.exchange.webservices.data.core.enumeration.service.SyncFolderItemsScope;
+import microsoft.exchange.webservices.data.core.enumeration.sync.ChangeType;
+import microsoft.exchange.webservices.data.core.service.item.Appointment;
+import microsoft.exchange.webservices.data.core.service.item.Item;
+import microsoft.exchange.webservices.data.core.service.schema.AppointmentSchema;
+import microsoft.exchange.webservices.data.property.complex.FolderId;
+import microsoft.exchange.webservices.data.property.complex.ItemId;
+import microsoft.exchange.webservices.data.sync.ChangeCollection;
+import microsoft.exchange.webservices.data.sync.ItemChange;
+
+/**
+ * Fetches concurrently the items changes of Exchange calendar folders for the
+ * full synchronization of a user. Each folder is read with successive
+ * SyncFolderItems requests, from its last stored synchronization state, until
+ * no more changes are available. Fetched changes are handed over to the
+ * caller through a bounded queue, so that the fetching waits when the caller,
+ * which converts and persists the items, is slower.
+ * <p>
+ * Only the start date and type of the items are requested with their
+ * identifiers, so that the creations of single items which start before the
+ * synchronization window are dropped without retrieving their properties.
+ * Updates are always kept, they may concern events already synchronized and
+ * moved before the window. Recurring masters are always kept, their last
+ * occurrence can't be requested with the changes.
+ * <p>
+ * The EWS service isn't thread safe, thus each fetching thread uses its own
+ * copy of the user service. The number of concurrent requests sent to an
+ * Exchange server is limited for all users.
+ *
+ * @author Boubaker KHANFIR
+ */
+public class FolderItemsFetcher implements Closeable {
+
+  private static final Log                     LOG             = ExoLogger.getLogger(FolderItemsFetcher.class);
+
+  // Maximum number of changes returned by a SyncFolderItems request
+  public static final int                      MAX_CHANGES     = 512;
+
+  // Permits of concurrent requests by Exchange server URL, shared by all users
+  private static final Map<String, Semaphore>  serversPermits  = new ConcurrentHashMap<>();
+
+  private static final FolderChanges           END_OF_FETCH    = new FolderChanges(null, null, null, null, false);
+
+  private final ExchangeService                service;
+
+  private final Date                           untilDate;
+
+  private final Semaphore                      serverPermits;
+
+  private final ExecutorService                executor;
+
+  private final BlockingQueue<FolderChanges>   fetchedChanges;
+
+  // Running fetches, plus one until all the folders are submitted
+  private final AtomicInteger                  runningTasks    = new AtomicInteger(1);
+
+  private final Queue<ExchangeService>         threadsServices = new ConcurrentLinkedQueue<>();
+
+  private final ThreadLocal<ExchangeService>   threadService   = ThreadLocal.withInitial(this::newExchangeService);
+
+  private volatile boolean                     fetchFinished;
+
+  private boolean                              finished;
+
+  /**
+   * @param service user service
+   * @param untilDate start date of the synchronization window
+   * @param parallelism number of folders fetched concurrently
+   * @param serverMaxConcurrentRequests maximum concurrent requests to the
+   *          Exchange server of the user
+   */
+  public FolderItemsFetcher(ExchangeService service, Date untilDate, int parallelism, int serverMaxConcurrentRequests) {
+    this.service = service;
+    this.untilDate = untilDate;
+    this.serverPermits = serversPermits.computeIfAbsent(String.valueOf(service.getUrl()),
+                                                        url -> new Semaphore(serverMaxConcurrentRequests));
+    this.fetchedChanges = new ArrayBlockingQueue<>(parallelism * 2);
+    this.executor = Executors.newFixedThreadPool(parallelism,
+                                                 new ThreadFactoryBuilder().setNameFormat("ExchangeFirstSynchronization-%d")
+                                                                           .setDaemon(true)
+                                                                           .build());
+  }
+
+  /**
+   * Starts fetching the changes of the folder.
+   *
+   * @param folderId
+   * @param syncState synchronization state to start from, null to fetch all
+   *          the items of the folder
+   */
+  public void fetch(FolderId folderId, String syncState) {
+    submit(() -> fetchChanges(folderId, syncState));
+  }
+
+  /**
+   * Declares that all the folders to synchronize are submitted with
+   * {@link #fetch(FolderId, String)}. The end of the fetch isn't notified
+   * before this method is called, even if the submitted folders are already
+   * fetched.
+   */
+  public void fetchSubmitted() {
+    taskFinished();
+  }
+
+  /**
+   * Waits for the next fetched changes. The changes of a folder are returned
+   * in the order of the requests, so that their synchronization state can be
+   * stored once they are applied.
+   *
+   * @return changes of a folder, null when all the changes of all the folders
+   *         are fetched
+   * @throws InterruptedException
+   */
+  public FolderChanges nextChanges() throws InterruptedException {
+    if (finished || (fetchFinished && fetchedChanges.isEmpty())) {
+      finished = true;
+      return null;
+    }
+    FolderChanges folderChanges = fetchedChanges.take();
+    if (folderChanges == END_OF_FETCH) {
+      finished = true;
+      return null;
+    }
+    return folderChanges;
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    for (ExchangeService threadsService : threadsServices) {
+      threadsService.close();
+    }
+  }
+
+  private void fetchChanges(FolderId folderId, String syncState) throws Exception {
+    PropertySet propertySet = new PropertySet(BasePropertySet.IdOnly, AppointmentSchema.Start, AppointmentSchema.AppointmentType);
+    ChangeCollection<ItemChange> changeCollection;
+    do {
+      serverPermits.acquire();
+      try {
+        changeCollection = threadService.get()
+                                        .syncFolderItems(folderId,
+                                                         propertySet,
+                                                         null,
+                                                         MAX_CHANGES,
+                                                         SyncFolderItemsScope.NormalItems,
+                                                         syncState);
+      } finally {
+        serverPermits.release();
+      }
+
+      List<ItemId> modifiedItemIds = new ArrayList<>();
+      List<String> deletedItemIds = new ArrayList<>();
+      for (ItemChange itemChange : changeCollection) {
+        if (ChangeType.Create.equals(itemChange.getChangeType()) || ChangeType.Update.equals(itemChange.getChangeType())) {
+          if (ChangeType.Create.equals(itemChange.getChangeType()) && isBeforeSynchronizationWindow(itemChange.getItem())) {
+            continue;
+          }
+          modifiedItemIds.add(itemChange.getItemId());
+        } else if (ChangeType.Delete.equals(itemChange.getChangeType())) {
+          deletedItemIds.add(itemChange.getItemId().getUniqueId());
+        }
+      }
+      syncState = changeCollection.getSyncState();
+      fetchedChanges.put(new FolderChanges(folderId,
+                                           modifiedItemIds,
+                                           deletedItemIds,
+                                           syncState,
+                                           changeCollection.isMoreChangesAvailable()));
+    } while (changeCollection.isMoreChangesAvailable());
+  }
+
+  private boolean isBeforeSynchronizationWindow(Item item) throws Exception {
+    if (untilDate == null || !(item instanceof Appointment)) {
+      return false;
+    }
+    Appointment appointment = (Appointment) item;
+    return appointment.getAppointmentType() != AppointmentType.RecurringMaster && appointment.getStart() != null
+        && untilDate.after(appointment.getStart());
+  }
+
+  private void submit(FetchTask task) {
+    runningTasks.incrementAndGet();
+    executor.execute(() -> {
+      try {
+        task.run();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (Exception e) {
+        LOG.error("Error while fetching Exchange items, the synchronization will be resumed next time", e);
+      } finally {
+        if (taskFinished()) {
+          // Wake up the caller waiting for changes
+          try {
+            fetchedChanges.put(END_OF_FETCH);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * @return true if it was the last running fetch and all the folders were
+   *         submitted
+   */
+  private boolean taskFinished() {
+    if (runningTasks.decrementAndGet() == 0) {
+      fetchFinished = true;
+      return true;
+    }
+    return false;
+  }
+
+  private ExchangeService newExchangeService() {
+    ExchangeService threadsService = null;
+    if (service instanceof PooledExchangeService) {
+      threadsService = ((PooledExchangeService) service).newService();
+    } else {
+      threadsService = new ExchangeService(service.getRequestedServerVersion());
+      threadsService.setUrl(service.getUrl());
+    }
+    threadsService.setTimeout(service.getTimeout());
+    threadsService.setCredentials(service.getCredentials());
+    threadsServices.add(threadsService);
+    return threadsService;
+  }
+
+  /**
+   * Changes of a folder returned by a SyncFolderItems request.
+   */
+  public static final class FolderChanges {
+    private final FolderId     folderId;
+
+    private final List<ItemId> modifiedItemIds;
+
+    private final List<String> deletedItemIds;
+
+    private final String       syncState;
+
+    private final boolean      moreChangesAvailable;
+
+    private FolderChanges(FolderId folderId,
+                          List<ItemId> modifiedItemIds,
+                          List<String> deletedItemIds,
+                          String syncState,
+                          boolean moreChangesAvailable) {
+      this.folderId = folderId;
+      this.modifiedItemIds = modifiedItemIds;
+      this.deletedItemIds = deletedItemIds;
+      this.syncState = syncState;
+      this.moreChangesAvailable = moreChangesAvailable;
+    }
+
+    public FolderId getFolderId() {
+      return folderId;
+    }
+
+    public List<ItemId> getModifiedItemIds() {
+      return modifiedItemIds;
+    }
+
+    public List<String> getDeletedItemIds() {
+      return deletedItemIds;
+    }
+
+    public String getSyncState() {
+      return syncState;
+    }
+
+    /**
+     * @return false for the last changes of the folder
+     */
+    public boolean isMoreChangesAvailable() {
+      return moreChangesAvailable;
+    }
+  }
+
+  @FunctionalInterface
+  private interface FetchTask {
+    void run() throws Exception;
+  }
+}
@@ -0,0 +1,131 @@
+package org.exoplatform.extension.exchange.task;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.config.Registry;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import microsoft.exchange.webservices.data.core.CookieProcessingTargetAuthenticationStrategy;
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.enumeration.misc.ExchangeVersion;
+
+/**
+ * Exchange service using a HTTP client shared by all the services of the same
+ * Exchange server, instead of a HTTP client with its own connection per
+ * service. Connections are kept alive in a bounded pool per server and
+ * reused by the services of all users. The authentication state stays per
+ * service, in its own HTTP context, and connections authenticated with NTLM
+ * are only reused for the same user since they are bound to the user token of
+ * the context which opened them.
+ *
+ * @author Boubaker KHANFIR
+ */
+public class PooledExchangeService extends ExchangeService {
+
+  private static final Log                          LOG                 = ExoLogger.getLogger(PooledExchangeService.class);
+
+  private static final long                         IDLE_CONNECTION_TTL = TimeUnit.MINUTES.toSeconds(1);
+
+  // Connections pools by Exchange server URL, shared by all users
+  private static final Map<String, SharedTransport> transports          = new ConcurrentHashMap<>();
+
+  private final int                                 maxConnections;
+
+  /**
+   * @param requestedServerVersion
+   * @param url Exchange server URL
+   * @param maxConnections maximum number of connections to the Exchange
+   *          server, used when the pool of the server is created
+   */
+  public PooledExchangeService(ExchangeVersion requestedServerVersion, URI url, int maxConnections) {
+    super(requestedServerVersion);
+    this.maxConnections = maxConnections;
+    setUrl(url);
+
+    // Replace the client created for this service only
+    try {
+      httpClient.close();
+    } catch (IOException e) {
+      LOG.debug("Error while closing default HTTP client of Exchange service", e);
+    }
+    httpClient = transports.computeIfAbsent(url.toString(),
+                                            serverUrl -> new SharedTransport(createConnectionSocketFactoryRegistry(),
+                                                                             maxConnections)).client;
+  }
+
+  /**
+   * @return a new service sharing the same connections pool, without the
+   *         credentials and authentication state of this service
+   */
+  public PooledExchangeService newService() {
+    return new PooledExchangeService(getRequestedServerVersion(), getUrl(), maxConnections);
+  }
+
+  @Override
+  public void close() {
+    // The HTTP client is shared with the other services of the server, only
+    // the client dedicated to this service is closed
+    if (httpPoolingClient != null) {
+      try {
+        httpPoolingClient.close();
+      } catch (IOException e) {
+        LOG.debug("Error while closing HTTP pooling client of Exchange service", e);
+      }
+    }
+  }
+
+  /**
+   * @return statistics of connections pools by Exchange server URL
+   */
+  public static Map<String, PoolStats> getConnectionsStatistics() {
+    Map<String, PoolStats> statistics = new HashMap<>();
+    for (Map.Entry<String, SharedTransport> transport : transports.entrySet()) {
+      statistics.put(transport.getKey(), transport.getValue().connectionManager.getTotalStats());
+    }
+    return statistics;
+  }
+
+  /**
+   * Closes the connections pools of all Exchange servers.
+   */
+  public static void closeAll() {
+    for (Iterator<SharedTransport> iterator = transports.values().iterator(); iterator.hasNext();) {
+      SharedTransport transport = iterator.next();
+      iterator.remove();
+      try {
+        transport.client.close();
+      } catch (IOException e) {
+        LOG.warn("Error while closing Exchange connections pool", e);
+      }
+    }
+  }
+
+  private static final class SharedTransport {
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    private final CloseableHttpClient                client;
+
+    private SharedTransport(Registry<ConnectionSocketFactory> socketFactoryRegistry, int maxConnections) {
+      connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+      connectionManager.setMaxTotal(maxConnections);
+      connectionManager.setDefaultMaxPerRoute(maxConnections);
+      client = HttpClients.custom()
+                          .setConnectionManager(connectionManager)
+                          .setTargetAuthenticationStrategy(new CookieProcessingTargetAuthenticationStrategy())
+                          .evictExpiredConnections()
+                          .evictIdleConnections(IDLE_CONNECTION_TTL, TimeUnit.SECONDS)
+                          .build();
+    }
+  }
+}
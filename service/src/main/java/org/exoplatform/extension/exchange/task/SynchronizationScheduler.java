@@ -0,0 +1,431 @@
+package org.exoplatform.extension.exchange.task;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.pool.PoolStats;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Scheduler of users synchronization tasks. All tasks are kept in a single
+ * ready-queue ordered by deadline, where each user has at most one entry. A
+ * bounded pool of workers executes the entries which deadline is reached, then
+ * each entry is queued again with a new deadline once its execution is
+ * finished. This way, a user can't be synchronized twice while another user is
+ * waiting for its turn. The delay between two executions of a user task grows
+ * exponentially while no activity is notified for the user, up to a maximum
+ * delay, and goes back to the minimum delay as soon as an activity is notified.
+ *
+ * @author Boubaker KHANFIR
+ */
+public class SynchronizationScheduler {
+
+  private static final Log                     LOG                   = ExoLogger.getLogger(SynchronizationScheduler.class);
+
+  private static final long                    STATISTICS_LOG_PERIOD = TimeUnit.MINUTES.toMillis(5);
+
+  private final DelayQueue<UserTaskEntry>      readyQueue            = new DelayQueue<>();
+
+  private final Map<String, UserTaskEntry>     entries               = new ConcurrentHashMap<>();
+
+  private final ExecutorService                workers;
+
+  private final Semaphore                      availableWorkers;
+
+  private final Thread                         dispatcher;
+
+  private final int                            workersCount;
+
+  private final long                           delayInMillis;
+
+  private final long                           maxDelayInMillis;
+
+  private final AtomicLong                     executionsCount       = new AtomicLong();
+
+  private final AtomicLong                     totalLagInMillis      = new AtomicLong();
+
+  private final AtomicLong                     maxLagInMillis        = new AtomicLong();
+
+  private final AtomicLong                     rejectedTriggersCount = new AtomicLong();
+
+  private volatile long                        lastLagInMillis;
+
+  private volatile boolean                     stopped;
+
+  private long                                 lastStatisticsLogTime = System.currentTimeMillis();
+
+  private Runnable                             statisticsListener;
+
+  public SynchronizationScheduler(int workersCount, long delayInMillis, long maxDelayInMillis) {
+    this.workersCount = workersCount;
+    this.delayInMillis = delayInMillis;
+    this.maxDelayInMillis = Math.max(delayInMillis, maxDelayInMillis);
+    this.availableWorkers = new Semaphore(workersCount);
+
+    ThreadFactory workersThreadFactory = new ThreadFactoryBuilder().setNameFormat("ExchangeSynchronization-%d").build();
+    this.workers = Executors.newFixedThreadPool(workersCount, workersThreadFactory);
+
+    this.dispatcher = new ThreadFactoryBuilder().setNameFormat("ExchangeSynchronization-dispatcher")
+                                                .setDaemon(true)
+                                                .build()
+                                                .newThread(this::dispatch);
+  }
+
+  public void start() {
+    dispatcher.start();
+  }
+
+  public void stop() {
+    stopped = true;
+    dispatcher.interrupt();
+    workers.shutdownNow();
+    readyQueue.clear();
+    entries.clear();
+  }
+
+  /**
+   * Adds the synchronization task of a user to the queue. If a task already
+   * exists for the user, it will be cancelled and replaced.
+   *
+   * @param username
+   * @param task
+   * @param initialDelayInMillis
+   */
+  public void schedule(String username, Runnable task, long initialDelayInMillis) {
+    UserTaskEntry entry = new UserTaskEntry(username, task, System.currentTimeMillis() + initialDelayInMillis);
+    UserTaskEntry previousEntry = entries.put(username, entry);
+    if (previousEntry != null) {
+      cancel(previousEntry);
+    }
+    readyQueue.offer(entry);
+  }
+
+  /**
+   * Removes the synchronization task of a user from the queue and interrupts
+   * it if it's running.
+   *
+   * @param username
+   * @return true if a task was scheduled for the user
+   */
+  public boolean unschedule(String username) {
+    UserTaskEntry entry = entries.remove(username);
+    if (entry == null) {
+      return false;
+    }
+    cancel(entry);
+    return true;
+  }
+
+  /**
+   * Moves the deadline of the user task to now. If the task is running, it
+   * will be executed again as soon as it finishes.
+   *
+   * @param username
+   * @return false if the user has no scheduled task or if the queue is
+   *         saturated
+   */
+  public boolean trigger(String username) {
+    UserTaskEntry entry = entries.get(username);
+    if (entry == null) {
+      return false;
+    }
+    if (isSaturated()) {
+      rejectedTriggersCount.incrementAndGet();
+      LOG.debug("Synchronization queue is saturated, ignore forced synchronization of user '{}'", username);
+      return false;
+    }
+    synchronized (entry) {
+      if (readyQueue.remove(entry)) {
+        entry.deadline = System.currentTimeMillis();
+        readyQueue.offer(entry);
+      } else {
+        entry.triggered = true;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Notifies that changes were made recently on calendars of the user, either
+   * on eXo or on Exchange side. The delay of the user task is reset to the
+   * minimum delay.
+   *
+   * @param username
+   */
+  public void notifyActivity(String username) {
+    UserTaskEntry entry = entries.get(username);
+    if (entry == null) {
+      return;
+    }
+    synchronized (entry) {
+      entry.active = true;
+      entry.currentDelayInMillis = delayInMillis;
+      long deadline = System.currentTimeMillis() + delayInMillis;
+      if (entry.deadline > deadline && readyQueue.remove(entry)) {
+        entry.deadline = deadline;
+        readyQueue.offer(entry);
+      }
+    }
+  }
+
+  /**
+   * @param statisticsListener called each time the queue statistics are
+   *          logged, to log the statistics of related services
+   */
+  public void setStatisticsListener(Runnable statisticsListener) {
+    this.statisticsListener = statisticsListener;
+  }
+
+  public boolean isScheduled(String username) {
+    return entries.containsKey(username);
+  }
+
+  /**
+   * @return true if tasks are started later than their deadline by more than
+   *         the configured delay
+   */
+  public boolean isSaturated() {
+    return lastLagInMillis > delayInMillis;
+  }
+
+  /**
+   * @return number of users tasks in the queue, including the ones waiting for
+   *         a free worker
+   */
+  public int getQueueDepth() {
+    return readyQueue.size();
+  }
+
+  /**
+   * @return number of users tasks which deadline is reached but not yet
+   *         started
+   */
+  public int getReadyDepth() {
+    int readyDepth = 0;
+    for (UserTaskEntry entry : readyQueue) {
+      if (entry.getDelay(TimeUnit.MILLISECONDS) <= 0) {
+        readyDepth++;
+      }
+    }
+    return readyDepth;
+  }
+
+  /**
+   * @return maximum delay between two executions of an idle user task
+   */
+  public long getMaxDelayInMillis() {
+    return maxDelayInMillis;
+  }
+
+  public int getRunningCount() {
+    return workersCount - availableWorkers.availablePermits();
+  }
+
+  public long getExecutionsCount() {
+    return executionsCount.get();
+  }
+
+  public long getRejectedTriggersCount() {
+    return rejectedTriggersCount.get();
+  }
+
+  public long getLastLagInMillis() {
+    return lastLagInMillis;
+  }
+
+  public long getMaxLagInMillis() {
+    return maxLagInMillis.get();
+  }
+
+  public long getAverageLagInMillis() {
+    long executions = executionsCount.get();
+    return executions == 0 ? 0 : totalLagInMillis.get() / executions;
+  }
+
+  private void dispatch() {
+    while (!stopped) {
+      try {
+        UserTaskEntry entry = readyQueue.take();
+        if (entry.cancelled) {
+          continue;
+        }
+        // Wait for a free worker, meanwhile the other entries stay in the queue
+        // and their lag increases
+        availableWorkers.acquire();
+        synchronized (entry) {
+          if (entry.cancelled) {
+            availableWorkers.release();
+            continue;
+          }
+          entry.running = true;
+          entry.active = false;
+          recordLag(Math.max(0, System.currentTimeMillis() - entry.deadline));
+          entry.started.set(false);
+          try {
+            entry.future = workers.submit(() -> execute(entry));
+          } catch (RejectedExecutionException e) {
+            entry.running = false;
+            availableWorkers.release();
+            if (!stopped) {
+              LOG.warn("Synchronization task of user '{}' was rejected", entry.username, e);
+            }
+          }
+        }
+        logStatistics();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Exception e) {
+        LOG.error("Error while dispatching synchronization tasks", e);
+      }
+    }
+  }
+
+  private void execute(UserTaskEntry entry) {
+    if (!entry.started.compareAndSet(false, true)) {
+      // Cancelled before starting, the worker permit was released by cancel
+      return;
+    }
+    try {
+      entry.task.run();
+    } catch (Throwable e) {
+      LOG.warn("Error while executing synchronization task of user '{}'", entry.username, e);
+    } finally {
+      executionsCount.incrementAndGet();
+      availableWorkers.release();
+      reschedule(entry);
+    }
+  }
+
+  private void reschedule(UserTaskEntry entry) {
+    synchronized (entry) {
+      entry.running = false;
+      entry.future = null;
+      if (entry.cancelled || stopped) {
+        return;
+      }
+      long nextDelay = 0;
+      if (entry.triggered) {
+        entry.triggered = false;
+      } else {
+        if (entry.active) {
+          entry.currentDelayInMillis = delayInMillis;
+        } else {
+          entry.currentDelayInMillis = Math.min(entry.currentDelayInMillis * 2, maxDelayInMillis);
+        }
+        nextDelay = entry.currentDelayInMillis;
+        // Backpressure: when workers can't keep up with deadlines, users tasks
+        // are delayed by the observed lag instead of accumulating it
+        if (isSaturated()) {
+          nextDelay += lastLagInMillis;
+        }
+      }
+      entry.deadline = System.currentTimeMillis() + nextDelay;
+      readyQueue.offer(entry);
+    }
+  }
+
+  private void cancel(UserTaskEntry entry) {
+    synchronized (entry) {
+      entry.cancelled = true;
+      readyQueue.remove(entry);
+      Future<?> future = entry.future;
+      if (entry.running && future != null && future.cancel(true) && entry.started.compareAndSet(false, true)) {
+        // The task will never be executed, release its worker permit here
+        availableWorkers.release();
+      }
+    }
+  }
+
+  private void recordLag(long lagInMillis) {
+    lastLagInMillis = lagInMillis;
+    totalLagInMillis.addAndGet(lagInMillis);
+    maxLagInMillis.accumulateAndGet(lagInMillis, Math::max);
+  }
+
+  private void logStatistics() {
+    long now = System.currentTimeMillis();
+    if (now - lastStatisticsLogTime < STATISTICS_LOG_PERIOD) {
+      return;
+    }
+    lastStatisticsLogTime = now;
+    if (isSaturated()) {
+      LOG.warn("Exchange synchronization queue is saturated: queue depth = {}, ready = {}, running = {}/{}, last lag = {}ms, max lag = {}ms. Consider increasing the number of threads.",
+               getQueueDepth(),
+               getReadyDepth(),
+               getRunningCount(),
+               workersCount,
+               lastLagInMillis,
+               maxLagInMillis.get());
+    } else if (LOG.isDebugEnabled()) {
+      LOG.debug("Exchange synchronization queue: queue depth = {}, ready = {}, running = {}/{}, executions = {}, average lag = {}ms, last lag = {}ms, max lag = {}ms, rejected triggers = {}",
+                getQueueDepth(),
+                getReadyDepth(),
+                getRunningCount(),
+                workersCount,
+                executionsCount.get(),
+                getAverageLagInMillis(),
+                lastLagInMillis,
+                maxLagInMillis.get(),
+                rejectedTriggersCount.get());
+    }
+    if (LOG.isDebugEnabled()) {
+      for (Map.Entry<String, PoolStats> connectionsStatistics : PooledExchangeService.getConnectionsStatistics().entrySet()) {
+        LOG.debug("Exchange server '{}' connections: {}", connectionsStatistics.getKey(), connectionsStatistics.getValue());
+      }
+    }
+    if (statisticsListener != null) {
+      statisticsListener.run();
+    }
+  }
+
+  private final class UserTaskEntry implements Delayed {
+    private final String      username;
+
+    private final Runnable    task;
+
+    private volatile long     deadline;
+
+    private volatile long     currentDelayInMillis = delayInMillis;
+
+    private volatile boolean  active;
+
+    private volatile boolean  running;
+
+    private volatile boolean  triggered;
+
+    private volatile boolean  cancelled;
+
+    private volatile Future<?> future;
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private UserTaskEntry(String username, Runnable task, long deadline) {
+      this.username = username;
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+      if (other == this) {
+        return 0;
+      }
+      if (other instanceof UserTaskEntry) {
+        return Long.compare(deadline, ((UserTaskEntry) other).deadline);
+      }
+      return Long.compare(getDelay(TimeUnit.MILLISECONDS), other.getDelay(TimeUnit.MILLISECONDS));
+    }
+  }
+}
@@ -3,10 +3,11 @@ package org.exoplatform.extension.exchange.task;
 import java.io.*;
 import java.security.KeyStore;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
-import javax.jcr.Node;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -22,8 +23,11 @@ import org.exoplatform.commons.utils.CommonsUtils;
 import org.exoplatform.commons.utils.PropertyManager;
 import org.exoplatform.container.PortalContainer;
 import org.exoplatform.container.component.ComponentRequestLifecycle;
+import org.exoplatform.extension.exchange.model.OutboxChange;
 import org.exoplatform.extension.exchange.service.*;
+import org.exoplatform.extension.exchange.service.SynchronizationOriginRegistry.Origin;
 import org.exoplatform.extension.exchange.service.util.CalendarConverterUtils;
+import org.exoplatform.extension.exchange.task.FolderItemsFetcher.FolderChanges;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 import org.exoplatform.services.organization.OrganizationService;
@@ -36,21 +40,18 @@ import microsoft.exchange.webservices.data.core.ExchangeService;
 import microsoft.exchange.webservices.data.core.PropertySet;
 import microsoft.exchange.webservices.data.core.enumeration.property.BasePropertySet;
 import microsoft.exchange.webservices.data.core.enumeration.property.WellKnownFolderName;
-import microsoft.exchange.webservices.data.core.enumeration.search.ItemTraversal;
-import microsoft.exchange.webservices.data.core.enumeration.search.SortDirection;
 import microsoft.exchange.webservices.data.core.enumeration.service.SyncFolderItemsScope;
 import microsoft.exchange.webservices.data.core.enumeration.service.calendar.AppointmentType;
 import microsoft.exchange.webservices.data.core.enumeration.sync.ChangeType;
 import microsoft.exchange.webservices.data.core.exception.service.local.ServiceLocalException;
-import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceRemoteException;
 import microsoft.exchange.webservices.data.core.service.folder.CalendarFolder;
 import microsoft.exchange.webservices.data.core.service.folder.Folder;
 import microsoft.exchange.webservices.data.core.service.item.Appointment;
 import microsoft.exchange.webservices.data.core.service.item.Item;
-import microsoft.exchange.webservices.data.core.service.schema.AppointmentSchema;
 import microsoft.exchange.webservices.data.core.service.schema.ItemSchema;
 import microsoft.exchange.webservices.data.notification.ItemEvent;
 import microsoft.exchange.webservices.data.property.complex.FolderId;
+import microsoft.exchange.webservices.data.property.complex.ItemId;
 import microsoft.exchange.webservices.data.property.complex.OccurrenceInfo;
 import microsoft.exchange.webservices.data.search.FindItemsResults;
 import microsoft.exchange.webservices.data.search.ItemView;
@@ -83,13 +84,21 @@ public class UserIntegrationFacade {
 
   public static final String                              USER_EXCHANGE_SYNC_STATE_KEY          = "ADDONS_EXCHANGE_SYNC_STATE";
 
+  public static final String                              USER_EXCHANGE_SYNC_PROGRESS_KEY       = "ADDONS_EXCHANGE_SYNC_PROGRESS";
+
   private final static Log                                LOG                                   =
                                                               ExoLogger.getLogger(UserIntegrationFacade.class);
 
   private static final String                             USER_EXO_HANDLED_ATTRIBUTE            = "exo.check.date";
 
+  private static final int                                OUTBOX_MAX_ATTEMPTS                   = 5;
+
+  // Delay after which a change recorded in the outbox is abandoned if the
+  // modification of the event isn't saved
+  private static final long                               OUTBOX_SAVE_DELAY                     = 5 * 60 * 1000L;
+
   private static final Map<String, UserIntegrationFacade> instances                             =
-                                                                    new HashMap<String, UserIntegrationFacade>();
+                                                                    new ConcurrentHashMap<String, UserIntegrationFacade>();
 
   private static AbstractCodec                            codec;
 
@@ -97,6 +106,12 @@ public class UserIntegrationFacade {
 
   private final int                                       maxFirstSynchronizationDays;
 
+  private final int                                       itemsBatchSize;
+
+  private final int                                       firstSynchronizationThreads;
+
+  private final int                                       serverMaxConcurrentRequests;
+
   private final ExchangeService                           service;
 
   private final ExoDataStorageService                     exoStorageService;
@@ -109,17 +124,26 @@ public class UserIntegrationFacade {
 
   private SettingService                                  settingService;
 
-  private boolean                                         synchIsCurrentlyRunning               = false;
+  private final AtomicBoolean                             synchIsCurrentlyRunning               = new AtomicBoolean();
+
+  private OutboxStorageService                            outboxStorageService;
 
   private Date                                            firstSynchronizationUntilDate;
 
+  private volatile boolean                                closed;
+
+  private final AtomicBoolean                             correspondencesReleased               = new AtomicBoolean();
+
   public UserIntegrationFacade(CalendarService calendarService,
                                ExoDataStorageService exoStorageService,
                                ExchangeDataStorageService exchangeStorageService,
                                CorrespondenceService correspondenceService,
                                ExchangeService service,
                                String username,
-                               int maxFirstSynchronizationDays) {
+                               int maxFirstSynchronizationDays,
+                               int itemsBatchSize,
+                               int firstSynchronizationThreads,
+                               int serverMaxConcurrentRequests) {
     this.calendarService = calendarService;
     this.exoStorageService = exoStorageService;
     this.exchangeStorageService = exchangeStorageService;
@@ -127,13 +151,16 @@ public class UserIntegrationFacade {
     this.service = service;
     this.username = username;
     this.maxFirstSynchronizationDays = maxFirstSynchronizationDays;
-
-    // Set corresponding service to each username.
-    instances.put(username, this);
+    this.itemsBatchSize = itemsBatchSize;
+    this.firstSynchronizationThreads = firstSynchronizationThreads;
+    this.serverMaxConcurrentRequests = serverMaxConcurrentRequests;
 
     java.util.Calendar untilCalendarDate = java.util.Calendar.getInstance();
     untilCalendarDate.add(java.util.Calendar.DATE, -maxFirstSynchronizationDays);
     firstSynchronizationUntilDate = untilCalendarDate.getTime();
+
+    // Keep the user correspondences in memory until the instance is removed
+    correspondenceService.pin(username);
     LOG.info("Exchange calendar synchronization will start for user {} until day {}", username, firstSynchronizationUntilDate);
   }
 
@@ -147,6 +174,14 @@ public class UserIntegrationFacade {
     return instances.get(username);
   }
 
+  /**
+   * Sets this instance as the service of the user, once its synchronization
+   * task is started, replacing the service of a previous login if any.
+   */
+  public void register() {
+    instances.put(username, this);
+  }
+
   /**
    * @param folderId
    * @return Exchange Folder instance based on Exchange FolderId object
@@ -161,112 +196,170 @@ public class UserIntegrationFacade {
    * 
    * @param folderId
    * @throws Exception
-   * @return List of event IDs
+   * @return IDs of the eXo events updated by the synchronization
    */
-  public List<String> synchronizeFullCalendar(FolderId folderId) throws Exception {
-    List<String> updatedExoEventIds = new ArrayList<String>();
-    CalendarFolder folder = exchangeStorageService.getExchangeCalendar(service, folderId);
-
-    Calendar exoCalendar = exoStorageService.getUserCalendar(username, folder.getId().getUniqueId());
-    boolean isNewCalendar = exoCalendar == null;
-
-    String syncState = getSynchState(folderId);
-    if (syncState == null || isNewCalendar) {
-      LOG.debug("Start full exchange calendar synchronization for user '{}' exchange folder calendar {} until date {}",
-                username,
-                folderId.getFolderName() == null ? folderId.getUniqueId() : folderId.getFolderName(),
-                firstSynchronizationUntilDate);
-
-      Date lastSynchronizedDate = null;
-
-      // Create Calendar if not present
-      exoStorageService.getOrCreateUserCalendar(username, folder);
-
-      int offset = 0;
-      int pageSize = 30;
-
-      ItemView view = new ItemView(pageSize);
-      view.setPropertySet(new PropertySet(BasePropertySet.FirstClassProperties));
-      view.getOrderBy().add(AppointmentSchema.Start, SortDirection.Descending);
-      view.setTraversal(ItemTraversal.Shallow);
-
-      // Synchronize all events
-      ChangeCollection<ItemChange> changeCollection = service.syncFolderItems(folderId,
-                                                                              PropertySet.FirstClassProperties,
-                                                                              null,
-                                                                              512,
-                                                                              SyncFolderItemsScope.NormalItems,
-                                                                              syncState);
-      syncState = changeCollection.getSyncState();
+  public Set<String> synchronizeFullCalendar(FolderId folderId) throws Exception {
+    return synchronizeFullCalendars(Collections.singletonList(folderId));
+  }
 
-      while (true) {
-        FindItemsResults<Item> results = null;
-        try {
-          results = getItems(folderId, view);
-        } catch (ServiceRemoteException e) {
-          results = getItems(folderId, view);
+  /**
+   * Synchronize Exchange Calendars identified by 'folderIds' with eXo
+   * Calendars. The changes of the folders are fetched concurrently since
+   * their last synchronization state, then converted and stored in eXo by the
+   * current thread. The synchronization state of a folder is stored after
+   * each applied batch of changes, so that an interrupted synchronization is
+   * resumed from the last applied batch.
+   * 
+   * @param folderIds
+   * @throws Exception
+   * @return IDs of the eXo events updated by the synchronization
+   */
+  public Set<String> synchronizeFullCalendars(List<FolderId> folderIds) throws Exception {
+    Set<String> updatedExoEventIds = new HashSet<>();
+    Set<FolderId> failedFolderIds = new HashSet<>();
+    try (FolderItemsFetcher fetcher = new FolderItemsFetcher(service,
+                                                             firstSynchronizationUntilDate,
+                                                             firstSynchronizationThreads,
+                                                             serverMaxConcurrentRequests)) {
+      for (FolderId folderId : folderIds) {
+        CalendarFolder folder = exchangeStorageService.getExchangeCalendar(service, folderId);
+
+        Calendar exoCalendar = exoStorageService.getUserCalendar(username, folder.getId().getUniqueId());
+        boolean isNewCalendar = exoCalendar == null;
+
+        String syncState = isNewCalendar ? null : getSynchState(folderId);
+        long processedItems = isNewCalendar ? 0 : getSynchProgress(folderId);
+        if (processedItems > 0) {
+          LOG.info("Resume full exchange calendar synchronization for user '{}' exchange folder calendar {} after {} items",
+                   username,
+                   folderId.getFolderName() == null ? folderId.getUniqueId() : folderId.getFolderName(),
+                   processedItems);
+        } else if (syncState == null) {
+          LOG.debug("Start full exchange calendar synchronization for user '{}' exchange folder calendar {} until date {}",
+                    username,
+                    folderId.getFolderName() == null ? folderId.getUniqueId() : folderId.getFolderName(),
+                    firstSynchronizationUntilDate);
+
+          // Create Calendar if not present
+          exoStorageService.getOrCreateUserCalendar(username, folder);
+          setSynchProgress(folderId, 0);
+        } else {
+          LOG.debug("Synchronize last modified events since last synchronization for user '{}'", username);
         }
-
+        fetcher.fetch(folderId, syncState);
+      }
+      fetcher.fetchSubmitted();
+
+      // Retrieve the items with the properties needed for their conversion, only
+      // recurring masters need their occurrences to be loaded afterwards
+      PropertySet propertySet = CalendarConverterUtils.getAppointmentPropertySet();
+      FolderChanges folderChanges = null;
+      while (!closed && (folderChanges = fetcher.nextChanges()) != null) {
+        FolderId folderId = folderChanges.getFolderId();
+        List<ItemId> modifiedItemIds = removeEchoesOfExoChanges(folderChanges.getModifiedItemIds());
         try {
-          synchronizeExchangeAppointments(updatedExoEventIds, results.getItems());
+          List<Item> modifiedItems = new ArrayList<>();
+          for (int i = 0; i < modifiedItemIds.size(); i += itemsBatchSize) {
+            // Retrieve the items with the user service, which is used
+            // afterwards to load their properties
+            Map<String, Item> items = exchangeStorageService.getItems(service,
+                                                                      modifiedItemIds.subList(i,
+                                                                                              Math.min(i + itemsBatchSize,
+                                                                                                       modifiedItemIds.size())),
+                                                                      propertySet);
+            for (Item item : items.values()) {
+              if (item != null) {
+                modifiedItems.add(item);
+              }
+            }
+          }
+          applyExchangeChanges(updatedExoEventIds, modifiedItems, folderChanges.getDeletedItemIds());
+          if (!failedFolderIds.contains(folderId)) {
+            // The correspondences of the applied changes are persisted before
+            // the checkpoint, the items before it aren't fetched again
+            correspondenceService.flush(username);
+            setSynchState(folderId, folderChanges.getSyncState());
+            updateSynchProgress(folderId,
+                                modifiedItemIds.size() + folderChanges.getDeletedItemIds().size(),
+                                folderChanges.isMoreChangesAvailable());
+          }
         } catch (Exception e) {
-          LOG.error("Error while synchronizing for user '{}' '{}' items from offset '{}'", username, pageSize, offset, e);
-        }
-
-        if (!results.isMoreAvailable()) {
-          break;
+          // Keep the last stored state of the folder to retry these changes
+          // next time
+          failedFolderIds.add(folderId);
+          LOG.error("Error while synchronizing for user '{}' '{}' items", username, modifiedItemIds.size(), e);
         }
-
-        offset += pageSize;
-        view.setOffset(offset);
       }
-
-      LOG.debug("Full exchange calendar synchronization processed successfully for user '{}' for exchange calendar '{}',",
-                username,
-                folderId.getFolderName() == null ? folderId.getUniqueId() : folderId.getFolderName());
-      setSynchState(folderId, syncState);
-    } else {
-      LOG.debug("Synchronize last modified events since last synchronization for user '{}'", username);
-
-      int countModifiedItems = synchronizeExchangeAppointementsByState(folderId, updatedExoEventIds);
-
-      LOG.debug("First synchronization is finished for user '{}' with {} modified/created events", username, countModifiedItems);
     }
 
+    if (closed) {
+      LOG.info("Exchange calendar synchronization of user '{}' is stopped, it will be resumed on next login", username);
+      return updatedExoEventIds;
+    }
+    for (FolderId folderId : folderIds) {
+      if (!failedFolderIds.contains(folderId)) {
+        LOG.debug("Full exchange calendar synchronization processed successfully for user '{}' for exchange calendar '{}',",
+                  username,
+                  folderId.getFolderName() == null ? folderId.getUniqueId() : folderId.getFolderName());
+      }
+    }
     return updatedExoEventIds;
   }
 
-  private int synchronizeExchangeAppointementsByState(FolderId folderId, List<String> updatedExoEventIds) throws Exception {
+  private int synchronizeExchangeAppointementsByState(FolderId folderId, Set<String> updatedExoEventIds) throws Exception {
     String syncState = getSynchState(folderId);
-    ChangeCollection<ItemChange> changeCollection = service.syncFolderItems(folderId,
-                                                                            PropertySet.FirstClassProperties,
-                                                                            null,
-                                                                            512,
-                                                                            SyncFolderItemsScope.NormalItems,
-                                                                            syncState);
-    syncState = changeCollection.getSyncState();
-    int countModifiedItems = changeCollection.getCount();
-
-    List<Item> modifiedItems = new ArrayList<>();
-    Iterator<ItemChange> changeIterator = changeCollection.iterator();
-    while (changeIterator.hasNext()) {
-      ItemChange action = (ItemChange) changeIterator.next();
-      Item item = action.getItem();
-      if (item instanceof Appointment) {
+    int countModifiedItems = 0;
+    ChangeCollection<ItemChange> changeCollection = null;
+    do {
+      changeCollection = service.syncFolderItems(folderId,
+                                                 PropertySet.FirstClassProperties,
+                                                 null,
+                                                 FolderItemsFetcher.MAX_CHANGES,
+                                                 SyncFolderItemsScope.NormalItems,
+                                                 syncState);
+      countModifiedItems += changeCollection.getCount();
+
+      List<Item> modifiedItems = new ArrayList<>();
+      List<String> deletedItemIds = new ArrayList<>();
+      Iterator<ItemChange> changeIterator = changeCollection.iterator();
+      while (changeIterator.hasNext()) {
+        ItemChange action = (ItemChange) changeIterator.next();
         if (ChangeType.Create.equals(action.getChangeType()) || ChangeType.Update.equals(action.getChangeType())) {
-          modifiedItems.add(item);
+          if (action.getItem() instanceof Appointment && !isEchoOfExoChange(action.getItemId())) {
+            modifiedItems.add(action.getItem());
+          }
         } else if (ChangeType.Delete.equals(action.getChangeType())) {
-          String itemId = item.getId().getUniqueId();
-          checkAndDeleteExoEvent(itemId);
+          deletedItemIds.add(action.getItemId().getUniqueId());
         }
       }
-    }
+      // Items synchronized by state only have their first class properties,
+      // load the conversion properties of single items by batch, recurring
+      // masters are loaded afterwards with their occurrences
+      List<Item> singleItems = new ArrayList<>();
+      for (Item item : modifiedItems) {
+        if (((Appointment) item).getAppointmentType() != AppointmentType.RecurringMaster) {
+          singleItems.add(item);
+        }
+      }
+      loadItemsProperties(singleItems, CalendarConverterUtils.getAppointmentPropertySet());
+      applyExchangeChanges(updatedExoEventIds, modifiedItems, deletedItemIds);
 
+      syncState = changeCollection.getSyncState();
+      correspondenceService.flush(username);
+      setSynchState(folderId, syncState);
+    } while (!closed && changeCollection.isMoreChangesAvailable());
+    return countModifiedItems;
+  }
+
+  private void applyExchangeChanges(Set<String> updatedExoEventIds,
+                                    List<Item> modifiedItems,
+                                    List<String> deletedItemIds) throws Exception {
     if (!modifiedItems.isEmpty()) {
       synchronizeExchangeAppointments(updatedExoEventIds, modifiedItems);
     }
-    setSynchState(folderId, syncState);
-    return countModifiedItems;
+    for (String itemId : deletedItemIds) {
+      checkAndDeleteExoEvent(itemId);
+    }
   }
 
   public void checkAndDeleteExoEvent(String itemId) throws Exception {
@@ -281,6 +374,60 @@ public class UserIntegrationFacade {
     getSettingService().remove(USER_EXCHANGE_CONTEXT,
                                USER_EXCHANGE_SCOPE.id(folderId.getUniqueId()),
                                USER_EXCHANGE_SYNC_STATE_KEY);
+    removeSynchProgress(folderId);
+  }
+
+  /**
+   * Adds the items of an applied batch to the progress of the full
+   * synchronization of the folder, the batch position itself being given by
+   * the synchronization state stored with it. The progress is removed once
+   * the last changes of the folder are applied.
+   */
+  private void updateSynchProgress(FolderId folderId, int batchItems, boolean moreChangesAvailable) {
+    long processedItems = getSynchProgress(folderId) + batchItems;
+    if (moreChangesAvailable) {
+      setSynchProgress(folderId, processedItems);
+    } else {
+      if (processedItems > 0) {
+        LOG.info("Full exchange calendar synchronization for user '{}' exchange folder calendar {} finished with {} items",
+                 username,
+                 folderId.getFolderName() == null ? folderId.getUniqueId() : folderId.getFolderName(),
+                 processedItems);
+      }
+      removeSynchProgress(folderId);
+    }
+  }
+
+  private void setSynchProgress(FolderId folderId, long processedItems) {
+    getSettingService().set(USER_EXCHANGE_CONTEXT,
+                            USER_EXCHANGE_SCOPE.id(folderId.getUniqueId()),
+                            USER_EXCHANGE_SYNC_PROGRESS_KEY,
+                            SettingValue.create(String.valueOf(processedItems)));
+  }
+
+  private void removeSynchProgress(FolderId folderId) {
+    getSettingService().remove(USER_EXCHANGE_CONTEXT,
+                               USER_EXCHANGE_SCOPE.id(folderId.getUniqueId()),
+                               USER_EXCHANGE_SYNC_PROGRESS_KEY);
+  }
+
+  /**
+   * @param folderId
+   * @return number of items already processed by an unfinished full
+   *         synchronization of the folder, 0 if none
+   */
+  public long getSynchProgress(FolderId folderId) {
+    SettingValue<?> settingValue = getSettingService().get(USER_EXCHANGE_CONTEXT,
+                                                           USER_EXCHANGE_SCOPE.id(folderId.getUniqueId()),
+                                                           USER_EXCHANGE_SYNC_PROGRESS_KEY);
+    if (settingValue == null || settingValue.getValue() == null) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(settingValue.getValue().toString());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
   }
 
   private void setSynchState(FolderId folderId, String syncState) {
@@ -297,6 +444,13 @@ public class UserIntegrationFacade {
     return settingValue == null || settingValue.getValue() == null ? null : settingValue.getValue().toString();
   }
 
+  public OutboxStorageService getOutboxStorageService() {
+    if (outboxStorageService == null) {
+      outboxStorageService = CommonsUtils.getService(OutboxStorageService.class);
+    }
+    return outboxStorageService;
+  }
+
   public SettingService getSettingService() {
     if (settingService == null) {
       settingService = CommonsUtils.getService(SettingService.class);
@@ -311,13 +465,24 @@ public class UserIntegrationFacade {
    * @param folderId
    * @param exoLastSyncDate
    * @param updatedExoEventIDs
+   * @param synchronizeExchangeState false if Exchange changes are known to be
+   *          already handled by notifications
+   * @param reconcileExoChanges true to search eXo events modified since
+   *          'exoLastSyncDate', false to rely only on the eXo changes recorded
+   *          in the user outbox until the next periodic search
    * @throws Exception
    */
   public void synchronizeModificationsOfCalendar(FolderId folderId,
                                                  Date exoLastSyncDate,
-                                                 List<String> updatedExoEventIDs) throws Exception {
-    synchronizeExchangeAppointementsByState(folderId, updatedExoEventIDs);
-    synchronizeExoEventsByModificationDate(folderId, updatedExoEventIDs, exoLastSyncDate);
+                                                 Set<String> updatedExoEventIDs,
+                                                 boolean synchronizeExchangeState,
+                                                 boolean reconcileExoChanges) throws Exception {
+    if (synchronizeExchangeState) {
+      synchronizeExchangeAppointementsByState(folderId, updatedExoEventIDs);
+    }
+    if (reconcileExoChanges) {
+      synchronizeExoEventsByModificationDate(folderId, updatedExoEventIDs, exoLastSyncDate);
+    }
   }
 
   /**
@@ -361,11 +526,58 @@ public class UserIntegrationFacade {
    * @throws Exception
    */
   public List<CalendarEvent> createOrUpdateOrDelete(ItemEvent itemEvent) throws Exception {
-    List<CalendarEvent> updatedEvents = null;
-
+    if (isEchoOfExoChange(itemEvent.getItemId())) {
+      return Collections.emptyList();
+    }
     Item item = exchangeStorageService.getItem(service, itemEvent.getItemId());
+    return createOrUpdateOrDelete(itemEvent.getItemId().getUniqueId(), item);
+  }
+
+  /**
+   * Creates or updates or deletes eXo Calendar Events associated to Items.
+   * Items are retrieved from Exchange by batches, an Item that is not found
+   * in Exchange is considered as deleted.
+   * 
+   * @param itemIds
+   * @return updated eXo Calendar Events
+   * @throws Exception
+   */
+  public List<CalendarEvent> createOrUpdateOrDelete(List<ItemId> itemIds) throws Exception {
+    List<CalendarEvent> updatedEvents = new ArrayList<>();
+    itemIds = removeEchoesOfExoChanges(itemIds);
+    for (int i = 0; i < itemIds.size(); i += itemsBatchSize) {
+      List<ItemId> batchItemIds = itemIds.subList(i, Math.min(i + itemsBatchSize, itemIds.size()));
+      Map<String, Item> items = exchangeStorageService.getItems(service,
+                                                                batchItemIds,
+                                                                CalendarConverterUtils.getAppointmentPropertySet());
+      List<Item> recurringMasterItems = new ArrayList<>();
+      for (Item item : items.values()) {
+        if (item instanceof Appointment && ((Appointment) item).getAppointmentType() == AppointmentType.RecurringMaster) {
+          recurringMasterItems.add(item);
+        }
+      }
+      loadItemsProperties(recurringMasterItems, CalendarConverterUtils.getRecurringMasterPropertySet());
+      for (ItemId itemId : batchItemIds) {
+        if (!items.containsKey(itemId.getUniqueId())) {
+          continue;
+        }
+        try {
+          List<CalendarEvent> events = createOrUpdateOrDelete(itemId.getUniqueId(), items.get(itemId.getUniqueId()));
+          if (events != null) {
+            updatedEvents.addAll(events);
+          }
+        } catch (Exception e) {
+          LOG.warn("Error while synchronizing Exchange item '{}' for user '{}'", itemId.getUniqueId(), username, e);
+        }
+      }
+    }
+    return updatedEvents;
+  }
+
+  private List<CalendarEvent> createOrUpdateOrDelete(String itemId, Item item) throws Exception {
+    List<CalendarEvent> updatedEvents = null;
     if (item == null) {
-      exoStorageService.deleteEventByAppointmentID(itemEvent.getItemId().getUniqueId(), username);
+      exoStorageService.deleteEventByAppointmentID(itemId, username);
     } else if (item instanceof Appointment) {
       Appointment appointment = (Appointment) item;
       String eventId = correspondenceService.getCorrespondingId(username, appointment.getId().getUniqueId());
@@ -390,17 +602,6 @@ public class UserIntegrationFacade {
     return exoStorageService.getUserCalendar(username, folderId.getUniqueId());
   }
 
-  /**
-   * @param eventNode
-   * @throws Exception
-   */
-  public void updateOrCreateExchangeCalendarEvent(Node eventNode) throws Exception {
-    CalendarEvent event = exoStorageService.getExoEventByNode(eventNode);
-    if (isCalendarSynchronizedWithExchange(event.getCalendarId())) {
-      updateOrCreateExchangeCalendarEvent(event);
-    }
-  }
-
   /**
    * @param eventId
    * @throws Exception
@@ -430,6 +631,19 @@ public class UserIntegrationFacade {
                                                                     this::appointmentUpdated);
   }
 
+  /**
+   * Records the eXo event modification in the user outbox, to be pushed to
+   * Exchange by the synchronization task once the event is saved.
+   * 
+   * @param eventId
+   * @param calendarId
+   * @param modifiedTime modification date set on the event
+   * @throws Exception
+   */
+  public void submitExchangeCalendarEventUpdate(String eventId, String calendarId, long modifiedTime) throws Exception {
+    getOutboxStorageService().addChange(username, eventId, calendarId, false, modifiedTime);
+  }
+
   /**
    * @param eventId
    * @param calendarId
@@ -439,6 +653,69 @@ public class UserIntegrationFacade {
     exchangeStorageService.deleteAppointmentByExoEventId(username, service, eventId, calendarId);
   }
 
+  /**
+   * Records the eXo event deletion in the user outbox, to be pushed to
+   * Exchange by the synchronization task once the deletion is saved.
+   * 
+   * @param eventId
+   * @param calendarId
+   * @throws Exception
+   */
+  public void submitExchangeCalendarEventDeletion(String eventId, String calendarId) throws Exception {
+    getOutboxStorageService().addChange(username, eventId, calendarId, true, System.currentTimeMillis());
+  }
+
+  /**
+   * Pushes to Exchange the eXo changes recorded in the user outbox, in the
+   * order of their modification. Changes are recorded before the event is
+   * saved, a change which isn't saved yet is kept until it's saved, or
+   * abandoned after {@link #OUTBOX_SAVE_DELAY} if the save failed. A change
+   * which fails is retried by the next synchronizations, up to
+   * {@link #OUTBOX_MAX_ATTEMPTS} times.
+   * 
+   * @return number of changes pushed to Exchange
+   * @throws Exception
+   */
+  public int pushOutboxChanges() throws Exception {
+    int pushedChanges = 0;
+    List<OutboxChange> changes = getOutboxStorageService().getChanges(username);
+    for (OutboxChange change : changes) {
+      try {
+        CalendarEvent event = ((CalendarServiceImpl) calendarService).getDataStorage().getEvent(username, change.getEventId());
+        boolean saved = change.isDeleted() ? event == null : event != null && event.getLastModified() >= change.getChangeTime();
+        if (!saved) {
+          if (System.currentTimeMillis() - change.getChangeTime() < OUTBOX_SAVE_DELAY) {
+            continue;
+          }
+          // The save of the event failed, or the event was deleted meanwhile
+          LOG.debug("Change of eXo event '{}' for user '{}' wasn't saved, it's ignored", change.getEventId(), username);
+        } else if (change.isDeleted()) {
+          deleteExchangeCalendarEvent(change.getEventId(), change.getCalendarId());
+        } else if (isCalendarSynchronizedWithExchange(change.getCalendarId())) {
+          updateOrCreateExchangeCalendarEvent(event);
+        }
+        getOutboxStorageService().removeChange(username, change);
+        pushedChanges++;
+      } catch (Exception e) {
+        if (change.getAttempts() + 1 >= OUTBOX_MAX_ATTEMPTS) {
+          LOG.error("Error while pushing to Exchange the change of eXo event '{}' for user '{}', the change is abandoned after {} attempts",
+                    change.getEventId(),
+                    username,
+                    OUTBOX_MAX_ATTEMPTS,
+                    e);
+          getOutboxStorageService().removeChange(username, change);
+        } else {
+          LOG.warn("Error while pushing to Exchange the change of eXo event '{}' for user '{}', it will be retried next synchronization",
+                   change.getEventId(),
+                   username,
+                   e);
+          getOutboxStorageService().setChangeFailed(username, change);
+        }
+      }
+    }
+    return pushedChanges;
+  }
+
   /**
    * Handle Exchange Calendar Deletion by deleting associated eXo Calendar.
    * 
@@ -466,22 +743,29 @@ public class UserIntegrationFacade {
   }
 
   public void removeInstance() {
+    // Stop the running synchronization after its current batch
+    closed = true;
     if (LOG.isTraceEnabled()) {
       LOG.trace("Stop Exchange Integration Service for user: " + username);
     }
-    instances.remove(username);
+    // The instance may be removed both by its task and by the service
+    if (correspondencesReleased.compareAndSet(false, true)) {
+      correspondenceService.release(username);
+    }
+    // Don't remove the service of a more recent login
+    instances.remove(username, this);
   }
 
-  public List<String> synchronizeExchangeFolderState(List<FolderId> calendarFolderIds,
-                                                     boolean synchronizeAllExchangeFolders,
-                                                     boolean deleteExoCalendarOnUnsync) throws Exception {
+  public Set<String> synchronizeExchangeFolderState(List<FolderId> calendarFolderIds,
+                                                    boolean synchronizeAllExchangeFolders,
+                                                    boolean deleteExoCalendarOnUnsync) throws Exception {
     Iterator<FolderId> iterator = calendarFolderIds.iterator();
     while (iterator.hasNext()) {
       FolderId folderId = (FolderId) iterator.next();
       deleteExoCalendarOutOfSync(deleteExoCalendarOnUnsync, iterator, folderId);
     }
 
-    List<String> updatedCalendarEventIds = null;
+    Set<String> updatedCalendarEventIds = new HashSet<>();
     // synchronize added Folders
     if (synchronizeAllExchangeFolders) {
       List<FolderId> folderIds = exchangeStorageService.getAllExchangeCalendars(service);
@@ -491,14 +775,7 @@ public class UserIntegrationFacade {
           // Delete eXo calendar and recreate it
           exoStorageService.deleteCalendar(username, folderId.getUniqueId());
 
-          List<String> tmpUpdatedCalendarEventIds = synchronizeFullCalendar(folderId);
-          if (tmpUpdatedCalendarEventIds != null && !tmpUpdatedCalendarEventIds.isEmpty()) {
-            if (updatedCalendarEventIds == null) {
-              updatedCalendarEventIds = tmpUpdatedCalendarEventIds;
-            } else {
-              updatedCalendarEventIds.addAll(tmpUpdatedCalendarEventIds);
-            }
-          }
+          updatedCalendarEventIds.addAll(synchronizeFullCalendar(folderId));
 
           calendarFolderIds.add(folderId);
         }
@@ -512,14 +789,7 @@ public class UserIntegrationFacade {
           // Delete eXo calendar and recreate it
           exoStorageService.deleteCalendar(username, folderId.getUniqueId());
 
-          List<String> tmpUpdatedCalendarEventIds = synchronizeFullCalendar(folderId);
-          if (tmpUpdatedCalendarEventIds != null && !tmpUpdatedCalendarEventIds.isEmpty()) {
-            if (updatedCalendarEventIds == null) {
-              updatedCalendarEventIds = tmpUpdatedCalendarEventIds;
-            } else {
-              updatedCalendarEventIds.addAll(tmpUpdatedCalendarEventIds);
-            }
-          }
+          updatedCalendarEventIds.addAll(synchronizeFullCalendar(folderId));
 
           calendarFolderIds.add(folderId);
         }
@@ -577,25 +847,43 @@ public class UserIntegrationFacade {
   public void addFolderToSynchronization(String folderIdString) throws Exception {
     String calendarId = CalendarConverterUtils.getCalendarId(folderIdString);
     correspondenceService.setCorrespondingId(username, calendarId, folderIdString);
+    correspondenceService.flush(username);
     removeSynchState(FolderId.getFolderIdFromString(folderIdString));
   }
 
   public void deleteFolderFromSynchronization(String folderIdString) throws Exception {
     correspondenceService.deleteCorrespondingId(username, folderIdString);
+    correspondenceService.flush(username);
     removeSynchState(FolderId.getFolderIdFromString(folderIdString));
   }
 
-  public synchronized boolean setSynchronizationStarted() {
-    return synchIsCurrentlyRunning ? false : (synchIsCurrentlyRunning = true);
+  /**
+   * Acquires the synchronization of the user without waiting.
+   * 
+   * @return true if no other synchronization is running for the user
+   */
+  public boolean setSynchronizationStarted() {
+    return synchIsCurrentlyRunning.compareAndSet(false, true);
   }
 
-  public synchronized void setSynchronizationStopped() {
-    synchIsCurrentlyRunning = false;
+  public void setSynchronizationStopped() {
+    // Persist at once the correspondences modified by the synchronization
+    flushCorrespondences();
+    synchIsCurrentlyRunning.set(false);
+  }
+
+  public void flushCorrespondences() {
+    try {
+      correspondenceService.flush(username);
+    } catch (Exception e) {
+      LOG.error("Error while saving correspondences of user '{}', it will be retried next synchronization", username, e);
+    }
   }
 
   private void deleteExoEventsOutOfSynchronization(FolderId folderId) throws Exception {
-    List<CalendarEvent> events = exoStorageService.getUserCalendarEvents(username, folderId.getUniqueId());
-    for (CalendarEvent calendarEvent : events) {
+    Iterator<CalendarEvent> events = exoStorageService.iterateUserCalendarEvents(username, folderId.getUniqueId());
+    while (events != null && events.hasNext()) {
+      CalendarEvent calendarEvent = events.next();
       String itemId = correspondenceService.getCorrespondingId(username, calendarEvent.getId());
       if (itemId == null) {
         exoStorageService.deleteEvent(username, calendarEvent);
@@ -608,22 +896,26 @@ public class UserIntegrationFacade {
     }
   }
 
-  private void synchronizeExchangeAppointments(List<String> eventIds, Iterable<Item> items) throws Exception,
+  private void synchronizeExchangeAppointments(Set<String> eventIds, Iterable<Item> items) throws Exception,
                                                                                             ServiceLocalException {
-    Date lastSynchronizedDate = null;
+    // Load recurring masters with their occurrences by batch, it's needed to
+    // check their last occurrence date
+    List<Item> recurringMasterItems = new ArrayList<>();
+    for (Item item : items) {
+      if (item instanceof Appointment && ((Appointment) item).getAppointmentType() == AppointmentType.RecurringMaster) {
+        recurringMasterItems.add(item);
+      }
+    }
+    loadItemsProperties(recurringMasterItems, CalendarConverterUtils.getRecurringMasterPropertySet());
+
+    List<Item> itemsToSynchronize = new ArrayList<>();
     for (Item item : items) {
       if (item instanceof Appointment) {
         Appointment appointment = (Appointment) item;
         Date startTime = appointment.getStart();
 
         if (appointment.getAppointmentType() == AppointmentType.RecurringMaster) {
-          appointment = Appointment.bind(appointment.getService(),
-                                         appointment.getId(),
-                                         new PropertySet(AppointmentSchema.LastOccurrence));
           OccurrenceInfo lastOccurrenceInfo = appointment.getLastOccurrence();
-          appointment = Appointment.bind(appointment.getService(),
-                                         appointment.getId(),
-                                         new PropertySet(BasePropertySet.FirstClassProperties));
           if (lastOccurrenceInfo != null) {
             Date lastOccurrenceEndDate = lastOccurrenceInfo.getEnd();
             if (lastOccurrenceEndDate.before(firstSynchronizationUntilDate)) {
@@ -635,7 +927,10 @@ public class UserIntegrationFacade {
             }
           }
         } else {
-          if (firstSynchronizationUntilDate.after(startTime)) {
+          // Events already synchronized are updated even if they were moved
+          // before the limit date
+          if (firstSynchronizationUntilDate.after(startTime)
+              && correspondenceService.getCorrespondingId(username, appointment.getId().getUniqueId()) == null) {
             LOG.info("Ignore calendar event '{}' because its start date {} is after limit date {}",
                      appointment.getSubject(),
                      startTime,
@@ -644,22 +939,28 @@ public class UserIntegrationFacade {
           }
         }
 
-        List<CalendarEvent> updatedEvents = null;
-        try {
-          updatedEvents = exoStorageService.createOrUpdateEvent((Appointment) item, username);
-        } catch (Exception e) {
-          LOG.warn("Error user '{}' create/update exchange item '{}'", username, item.getId().getUniqueId());
-        }
-
-        if (updatedEvents != null && !updatedEvents.isEmpty()) {
-          for (CalendarEvent calendarEvent : updatedEvents) {
-            eventIds.add(calendarEvent.getId());
-          }
-        }
+        itemsToSynchronize.add(item);
       } else {
         LOG.warn("Item bound from exchange but not of type 'Appointment':" + item.getItemClass());
       }
     }
+
+    // Save the events of the batch in a single transaction
+    List<Appointment> appointmentsToSynchronize = new ArrayList<>();
+    for (Item item : itemsToSynchronize) {
+      appointmentsToSynchronize.add((Appointment) item);
+    }
+    List<CalendarEvent> updatedEvents = exoStorageService.createOrUpdateEvents(appointmentsToSynchronize, username);
+    for (CalendarEvent calendarEvent : updatedEvents) {
+      eventIds.add(calendarEvent.getId());
+    }
+  }
+
+  private void loadItemsProperties(List<Item> items, PropertySet propertySet) throws Exception {
+    for (int i = 0; i < items.size(); i += itemsBatchSize) {
+      List<Item> batchItems = items.subList(i, Math.min(i + itemsBatchSize, items.size()));
+      service.loadPropertiesForItems(batchItems, propertySet);
+    }
   }
 
   /**
@@ -760,17 +1061,17 @@ public class UserIntegrationFacade {
   }
 
   private void synchronizeExoEventsByModificationDate(FolderId folderId,
-                                                      List<String> updatedExoEventIDs,
+                                                      Set<String> updatedExoEventIDs,
                                                       Date exoLastSyncDate) throws Exception {
-    List<CalendarEvent> modifiedCalendarEvents = searchCalendarEventsModifiedSince(getUserCalendarByExchangeFolderId(folderId),
-                                                                                   exoLastSyncDate);
-    if (LOG.isTraceEnabled() && modifiedCalendarEvents.size() > 0) {
-      LOG.trace("Check exo user calendar for user '{}' since '{}', items found: {}",
-                username,
-                exoLastSyncDate,
-                modifiedCalendarEvents.size());
-    }
-    for (CalendarEvent calendarEvent : modifiedCalendarEvents) {
+    // Events are loaded and processed one by one
+    Iterator<CalendarEvent> modifiedCalendarEvents =
+                                                   exoStorageService.iterateExoEventsModifiedSince(username,
+                                                                                                   getUserCalendarByExchangeFolderId(folderId),
+                                                                                                   exoLastSyncDate);
+    int countModifiedEvents = 0;
+    while (modifiedCalendarEvents.hasNext()) {
+      CalendarEvent calendarEvent = modifiedCalendarEvents.next();
+      countModifiedEvents++;
       // If modified with synchronization, ignore
       if (updatedExoEventIDs.contains(calendarEvent.getId())) {
         continue;
@@ -793,22 +1094,12 @@ public class UserIntegrationFacade {
       }
       updatedExoEventIDs.add(calendarEvent.getId());
     }
-  }
-
-  private FindItemsResults<Item> getItems(FolderId parentFolderId, ItemView view) throws Exception {
-    try {
-      return service.findItems(parentFolderId, view);
-    } catch (Exception e) {
-      LOG.warn("Error while paging results: page = " + view.getOffset() + " page size = " + view.getPageSize(), e);
-    }
-    return null;
-  }
-
-  private List<CalendarEvent> searchCalendarEventsModifiedSince(Calendar calendar, Date date) throws Exception {
-    if (date == null) {
-      return exoStorageService.getAllExoEvents(username, calendar);
+    if (LOG.isTraceEnabled() && countModifiedEvents > 0) {
+      LOG.trace("Check exo user calendar for user '{}' since '{}', items found: {}",
+                username,
+                exoLastSyncDate,
+                countModifiedEvents);
     }
-    return exoStorageService.findExoEventsModifiedSince(username, calendar, date);
   }
 
   private List<Item> searchAllAppointmentsModifiedSince(FolderId parentFolderId, Date date) throws Exception {
@@ -910,6 +1201,33 @@ public class UserIntegrationFacade {
     return codec.encode(password);
   }
 
+  /**
+   * @param itemId Exchange item identifier with its change key
+   * @return true if the item version is the one saved by the synchronization
+   *         of an eXo change
+   */
+  private boolean isEchoOfExoChange(ItemId itemId) throws Exception {
+    if (itemId == null || itemId.getChangeKey() == null) {
+      return false;
+    }
+    String eventId = correspondenceService.getCorrespondingId(username, itemId.getUniqueId());
+    boolean echo = SynchronizationOriginRegistry.isEcho(eventId, itemId.getChangeKey(), Origin.EXO);
+    if (echo && LOG.isTraceEnabled()) {
+      LOG.trace("IGNORE Exchange item of eXo event '{}' for user '{}', it was saved by the synchronization", eventId, username);
+    }
+    return echo;
+  }
+
+  private List<ItemId> removeEchoesOfExoChanges(List<ItemId> itemIds) throws Exception {
+    List<ItemId> changedItemIds = new ArrayList<>(itemIds.size());
+    for (ItemId itemId : itemIds) {
+      if (!isEchoOfExoChange(itemId)) {
+        changedItemIds.add(itemId);
+      }
+    }
+    return changedItemIds;
+  }
+
   /**
    * Make sure that eXo Event has the same modification date than Exchange event
    * 
@@ -924,6 +1242,8 @@ public class UserIntegrationFacade {
       CalendarEvent event = exoStorageService.getEventByAppointmentId(username, appointment.getId().getUniqueId());
       if (event != null) {
         exoStorageService.updateModifiedDateOfEvent(username, event, appointment.getLastModifiedTime());
+        // The notification of this change will be ignored
+        SynchronizationOriginRegistry.record(event.getId(), appointment.getId().getChangeKey(), Origin.EXO);
       }
     } catch (Exception e) {
       LOG.warn("Error occurred while updating eXo Event last updated date", e);